@@ -0,0 +1,459 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.jbossas.servermanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A log file writer which batches writes.
+ * 
+ * Characters are encoded into a large direct buffer. Once the buffer
+ * holds FLUSH_THRESHOLD bytes, or FLUSH_INTERVAL has passed, it is
+ * swapped with a spare and written out through a FileChannel on the
+ * flusher thread, so the caller never waits on the disk unless both
+ * buffers are full. {@link #flush()} and {@link #close()} write
+ * everything out before returning.
+ * 
+ * Once the file would grow beyond its size cap, it is closed and rolled
+ * by the {@link LogRoller} and writing continues in a new file.
+ * 
+ * If given an index file, the writer also records the offset, time and
+ * level of WARN and worse lines, and of the first line of every second,
+ * for {@link LogQuery}. Index records are written after the log bytes
+ * they point into, and the index restarts when the log is rolled.
+ *
+ * @version $Revision: $
+ */
+public class AsyncLogWriter extends Writer
+{
+   /** capacity of each of the two buffers **/
+   static final int BUFFER_SIZE = 256 * 1024;
+
+   /** hand the buffer over once it holds this much **/
+   static final int FLUSH_THRESHOLD = BUFFER_SIZE / 2;
+
+   /** longest time (in ms) a line may wait in the buffer **/
+   static final long FLUSH_INTERVAL = 250;
+
+   private final File file;
+
+   /** the cap on the file's size in bytes, 0 for none **/
+   private final long maxSize;
+
+   /** how many rolled generations to keep **/
+   private final int generations;
+
+   private final LogRoller roller;
+
+   /** only used by the flusher, or holding the lock once the flusher is idle **/
+   private FileChannel channel;
+
+   /** the index of the current file, null if not indexed; used like channel **/
+   private final FileChannel indexChannel;
+
+   private final Executor flusher;
+
+   private final ScheduledFuture<?> timer;
+
+   private final CharsetEncoder encoder = Charset.defaultCharset().newEncoder()
+         .onMalformedInput(CodingErrorAction.REPLACE)
+         .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+   /** guards everything below **/
+   private final Object lock = new Object();
+
+   /** the buffer being filled **/
+   private Batch active = new Batch();
+
+   /** the empty buffer, null while it is being written out **/
+   private Batch spare = new Batch();
+
+   /** bytes in the current file, including those handed to the flusher **/
+   private long fileBytes;
+
+   /** whether the next character starts a line **/
+   private boolean atLineStart = true;
+
+   /** the second (since the epoch) of the last time checkpoint in the index **/
+   private long indexedSecond = -1;
+
+   /** the last failure of the flusher, reported to the next caller **/
+   private IOException failure;
+
+   private boolean closed;
+
+   /**
+    * Create a new AsyncLogWriter.
+    *
+    * @param file the file to write, created or truncated
+    * @param indexFile the index to write, created or truncated, or null for none
+    * @param maxSize the size (in bytes) at which the file is rolled, 0 for no cap
+    * @param generations how many rolled generations to keep
+    * @param roller rolls the file
+    * @param flusher the thread writing buffers out and flushing on time
+    * @throws IOException if the file cannot be opened
+    */
+   public AsyncLogWriter(File file, File indexFile, long maxSize, int generations, LogRoller roller,
+         ScheduledExecutorService flusher) throws IOException
+   {
+      this.file = file;
+      this.maxSize = maxSize;
+      this.generations = generations;
+      this.roller = roller;
+      this.channel = open(file);
+      this.indexChannel = indexFile == null ? null : open(indexFile);
+      this.flusher = flusher;
+      this.timer = flusher.scheduleWithFixedDelay(new Runnable()
+      {
+         public void run()
+         {
+            flushOnTime();
+         }
+      }, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+   }
+
+   @Override
+   public void write(char[] cbuf, int off, int len) throws IOException
+   {
+      synchronized (lock)
+      {
+         ensureOpen();
+         final int stop = off + len;
+         int from = off;
+         while (from < stop)
+         {
+            if (atLineStart)
+            {
+               lineStarted(cbuf, from, stop);
+               atLineStart = false;
+            }
+            int to = from;
+            while (to < stop && cbuf[to] != '\n')
+            {
+               to++;
+            }
+            if (to < stop)
+            {
+               // include the terminator
+               to++;
+               atLineStart = true;
+            }
+            encode(CharBuffer.wrap(cbuf, from, to - from));
+            from = to;
+         }
+
+         // prefer handing over whole lines, so a roll does not split one
+         if (atLineStart && active.data.position() >= FLUSH_THRESHOLD)
+         {
+            handOff();
+         }
+      }
+   }
+
+   /**
+    * Write everything buffered so far to the file.
+    */
+   @Override
+   public void flush() throws IOException
+   {
+      synchronized (lock)
+      {
+         ensureOpen();
+         handOff();
+         awaitSpare();
+      }
+   }
+
+   /**
+    * Write everything buffered and close the file.
+    */
+   @Override
+   public void close() throws IOException
+   {
+      synchronized (lock)
+      {
+         if (closed)
+         {
+            return;
+         }
+         timer.cancel(false);
+         try
+         {
+            handOff();
+            awaitSpare();
+         }
+         finally
+         {
+            closed = true;
+            channel.close();
+            if (indexChannel != null)
+            {
+               indexChannel.close();
+            }
+         }
+      }
+   }
+
+   /**
+    * Encode characters into the active buffer, handing it over whenever full.
+    */
+   private void encode(CharBuffer in) throws IOException
+   {
+      encoder.reset();
+      while (encoder.encode(in, active.data, true).isOverflow())
+      {
+         handOff();
+      }
+      CoderResult result;
+      while ((result = encoder.flush(active.data)).isOverflow())
+      {
+         handOff();
+      }
+      if (result.isError())
+      {
+         result.throwException();
+      }
+   }
+
+   /**
+    * Index the line starting at the active buffer's position, if it is
+    * WARN or worse or the first line of a new second.
+    */
+   private void lineStarted(char[] cbuf, int from, int stop) throws IOException
+   {
+      if (indexChannel == null)
+      {
+         return;
+      }
+      if (!active.data.hasRemaining())
+      {
+         // the line will start in the next batch
+         handOff();
+      }
+      long now = System.currentTimeMillis();
+      byte level = LogQuery.levelOf(cbuf, from, stop);
+      long second = now / 1000;
+      if (level >= LogQuery.Level.WARN.code() || second != indexedSecond)
+      {
+         indexedSecond = second;
+         active.index(active.data.position(), now, level);
+      }
+   }
+
+   /**
+    * Periodic flush, skipped if the flusher is still busy with the last buffer.
+    */
+   private void flushOnTime()
+   {
+      synchronized (lock)
+      {
+         if (!closed && spare != null && active.data.position() > 0)
+         {
+            try
+            {
+               handOff();
+            }
+            catch (IOException e)
+            {
+               failure = e;
+            }
+         }
+      }
+   }
+
+   /**
+    * Swap the active buffer for the spare one and have the flusher write
+    * it out, rolling the file first if it would grow beyond its cap.
+    * Called holding the lock.
+    */
+   private void handOff() throws IOException
+   {
+      if (active.data.position() == 0)
+      {
+         return;
+      }
+      awaitSpare();
+
+      final Batch full = active;
+      active = spare;
+      spare = null;
+
+      final boolean roll = maxSize > 0 && fileBytes > 0 && fileBytes + full.data.position() > maxSize;
+      final long base = roll ? 0 : fileBytes;
+      fileBytes = base + full.data.position();
+
+      full.data.flip();
+      full.index.flip();
+      flusher.execute(new Runnable()
+      {
+         public void run()
+         {
+            IOException error = null;
+            try
+            {
+               if (roll)
+               {
+                  roll();
+               }
+               while (full.data.hasRemaining())
+               {
+                  channel.write(full.data);
+               }
+               if (indexChannel != null)
+               {
+                  full.rebase(base);
+                  while (full.index.hasRemaining())
+                  {
+                     indexChannel.write(full.index);
+                  }
+               }
+            }
+            catch (IOException e)
+            {
+               error = e;
+            }
+            synchronized (lock)
+            {
+               if (error != null)
+               {
+                  failure = error;
+               }
+               full.data.clear();
+               full.index.clear();
+               spare = full;
+               lock.notifyAll();
+            }
+         }
+      });
+   }
+
+   /**
+    * Wait until the previous buffer has been written out. Called holding the lock.
+    * The wait is for one disk write, so it is not cut short by an interrupt,
+    * which would lose the end of the log; the interrupt is kept for the caller.
+    */
+   private void awaitSpare() throws IOException
+   {
+      boolean interrupted = false;
+      while (spare == null)
+      {
+         try
+         {
+            lock.wait();
+         }
+         catch (InterruptedException e)
+         {
+            interrupted = true;
+         }
+      }
+      if (interrupted)
+      {
+         Thread.currentThread().interrupt();
+      }
+      if (failure != null)
+      {
+         IOException e = failure;
+         failure = null;
+         throw e;
+      }
+   }
+
+   /**
+    * Close the full file, roll it and start a new one. Called by the flusher.
+    */
+   private void roll() throws IOException
+   {
+      channel.close();
+      roller.roll(file, generations);
+      channel = open(file);
+      if (indexChannel != null)
+      {
+         // the rolled segment is not indexed
+         indexChannel.truncate(0);
+         indexChannel.position(0);
+      }
+   }
+
+   private static FileChannel open(File file) throws IOException
+   {
+      return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+   }
+
+   private void ensureOpen() throws IOException
+   {
+      if (closed)
+      {
+         throw new IOException("Log writer closed");
+      }
+   }
+
+   /**
+    * A buffer of encoded characters and the index records pointing into it.
+    */
+   private static class Batch
+   {
+      private final ByteBuffer data = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+      private ByteBuffer index = ByteBuffer.allocate(64 * LogQuery.RECORD_SIZE);
+
+      /**
+       * Add an index record, its offset relative to the start of this batch.
+       */
+      void index(long offset, long time, byte level)
+      {
+         if (index.remaining() < LogQuery.RECORD_SIZE)
+         {
+            ByteBuffer larger = ByteBuffer.allocate(index.capacity() * 2);
+            index.flip();
+            larger.put(index);
+            index = larger;
+         }
+         index.putLong(offset).putLong(time).put(level);
+      }
+
+      /**
+       * Make the (flipped) index records' offsets relative to the file.
+       */
+      void rebase(long base)
+      {
+         for (int record = index.position(); record < index.limit(); record += LogQuery.RECORD_SIZE)
+         {
+            index.putLong(record, index.getLong(record) + base);
+         }
+      }
+   }
+}
@@ -0,0 +1,96 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.jbossas.servermanager;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Poll intervals for the startup and shutdown wait loops.
+ * 
+ * Polls start at MIN_DELAY and grow by half each time up to MAX_DELAY.
+ * When the previous run of the same server took a known time, polling
+ * is relaxed (MAX_DELAY) until shortly before that time and then starts
+ * over from MIN_DELAY, so the state change is seen within a few tens of
+ * milliseconds without spinning for the whole boot.
+ *
+ * @version $Revision: $
+ */
+public final class Backoff
+{
+   /** shortest poll interval **/
+   public static final long MIN_DELAY = TimeUnit.MILLISECONDS.toNanos(20);
+
+   /** longest poll interval **/
+   public static final long MAX_DELAY = TimeUnit.MILLISECONDS.toNanos(500);
+
+   /** start polling hard at this fraction of the expected time **/
+   private static final double WINDOW_START = 0.8;
+
+   private final long begin = System.nanoTime();
+
+   /** when (System.nanoTime) the state change is expected, 0 if unknown **/
+   private final long windowStart;
+
+   private long delay = MIN_DELAY;
+
+   /**
+    * Create a new Backoff.
+    *
+    * @param expected how long (in ns) the last run took, or 0 if unknown
+    */
+   public Backoff(long expected)
+   {
+      this.windowStart = expected > 0 ? begin + (long) (expected * WINDOW_START) : 0;
+   }
+
+   /**
+    * Time elapsed since this backoff was created.
+    *
+    * @return the elapsed time in nanoseconds
+    */
+   public long elapsed()
+   {
+      return System.nanoTime() - begin;
+   }
+
+   /**
+    * The next time to wait, never beyond the remaining time.
+    *
+    * @param remaining the time (in ns) left before the deadline
+    * @return the time (in ns) to wait before polling again
+    */
+   public long nextDelay(long remaining)
+   {
+      long next;
+      if (windowStart != 0 && System.nanoTime() - windowStart < 0)
+      {
+         // well before the expected change, stay relaxed, but land in the window
+         next = Math.min(MAX_DELAY, Math.max(MIN_DELAY, windowStart - System.nanoTime()));
+      }
+      else
+      {
+         next = delay;
+         delay = Math.min(MAX_DELAY, delay + delay / 2);
+      }
+      return Math.max(0, Math.min(next, remaining));
+   }
+}
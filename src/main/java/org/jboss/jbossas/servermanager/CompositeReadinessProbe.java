@@ -0,0 +1,91 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.jbossas.servermanager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Combines probes: ready when all of them, or any of them, are ready.
+ * Probes are checked in order and evaluation stops once the answer is known.
+ *
+ * @version $Revision: $
+ */
+public class CompositeReadinessProbe implements ReadinessProbe
+{
+   private final List<ReadinessProbe> probes;
+
+   /** all (true) or any (false) **/
+   private final boolean all;
+
+   private CompositeReadinessProbe(List<ReadinessProbe> probes, boolean all)
+   {
+      if (probes.isEmpty())
+      {
+         throw new IllegalArgumentException("At least one probe is required");
+      }
+      this.probes = probes;
+      this.all = all;
+   }
+
+   /**
+    * Ready once every probe is ready.
+    *
+    * @param probes the probes
+    * @return the composite probe
+    */
+   public static CompositeReadinessProbe allOf(ReadinessProbe... probes)
+   {
+      return new CompositeReadinessProbe(new ArrayList<ReadinessProbe>(Arrays.asList(probes)), true);
+   }
+
+   /**
+    * Ready as soon as one probe is ready.
+    *
+    * @param probes the probes
+    * @return the composite probe
+    */
+   public static CompositeReadinessProbe anyOf(ReadinessProbe... probes)
+   {
+      return new CompositeReadinessProbe(new ArrayList<ReadinessProbe>(Arrays.asList(probes)), false);
+   }
+
+   public boolean isReady(Server server) throws IOException
+   {
+      for (ReadinessProbe probe : probes)
+      {
+         if (probe.isReady(server) != all)
+         {
+            return !all;
+         }
+      }
+      return all;
+   }
+
+   @Override
+   public String toString()
+   {
+      return (all ? "allOf" : "anyOf") + probes;
+   }
+}
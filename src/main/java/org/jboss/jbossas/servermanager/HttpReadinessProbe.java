@@ -0,0 +1,119 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.jbossas.servermanager;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
+
+/**
+ * Ready once a HEAD request to the server's HTTP port is answered
+ * with a non error status.
+ *
+ * @version $Revision: $
+ */
+public class HttpReadinessProbe implements ReadinessProbe
+{
+   /** default time (in ms) allowed to connect **/
+   public static final int DEFAULT_CONNECT_TIMEOUT = 1000;
+
+   /** default time (in ms) allowed for the response **/
+   public static final int DEFAULT_READ_TIMEOUT = 3000;
+
+   private final int connectTimeout;
+
+   private final int readTimeout;
+
+   /**
+    * Create a new HttpReadinessProbe with the default timeouts.
+    */
+   public HttpReadinessProbe()
+   {
+      this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+   }
+
+   /**
+    * Create a new HttpReadinessProbe.
+    *
+    * @param connectTimeout time (in ms) allowed to connect
+    * @param readTimeout time (in ms) allowed for the response
+    */
+   public HttpReadinessProbe(int connectTimeout, int readTimeout)
+   {
+      this.connectTimeout = connectTimeout;
+      this.readTimeout = readTimeout;
+   }
+
+   public boolean isReady(Server server) throws IOException
+   {
+      URLConnection conn = server.getHttpUrl().openConnection();
+      if (!(conn instanceof HttpURLConnection))
+      {
+         return false;
+      }
+
+      HttpURLConnection http = (HttpURLConnection) conn;
+      try
+      {
+         http.setConnectTimeout(connectTimeout);
+         http.setReadTimeout(readTimeout);
+         http.setRequestMethod("HEAD");
+         http.setUseCaches(false);
+         int responseCode = http.getResponseCode();
+         return responseCode > 0 && responseCode < 400;
+      }
+      catch (IOException e)
+      {
+         return false;
+      }
+      finally
+      {
+         http.disconnect();
+      }
+   }
+
+   /**
+    * Get the connect timeout.
+    *
+    * @return time (in ms) allowed to connect
+    */
+   int getConnectTimeout()
+   {
+      return connectTimeout;
+   }
+
+   /**
+    * Get the read timeout.
+    *
+    * @return time (in ms) allowed for the response
+    */
+   int getReadTimeout()
+   {
+      return readTimeout;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "HTTP HEAD (" + connectTimeout + "/" + readTimeout + " ms)";
+   }
+}
@@ -0,0 +1,104 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.jbossas.servermanager;
+
+import java.util.Arrays;
+
+import javax.management.ObjectName;
+
+/**
+ * An MBean operation to invoke as part of a {@link Server#invokeBatch} batch.
+ *
+ * @version $Revision: $
+ */
+public class Invocation
+{
+   private final ObjectName name;
+
+   private final String method;
+
+   private final Object[] args;
+
+   private final String[] sig;
+
+   /**
+    * Create a new Invocation.
+    *
+    * @param name the MBean
+    * @param method the operation
+    * @param args the arguments, or null
+    * @param sig the signature, or null
+    */
+   public Invocation(ObjectName name, String method, Object[] args, String[] sig)
+   {
+      this.name = name;
+      this.method = method;
+      this.args = args;
+      this.sig = sig;
+   }
+
+   /**
+    * Get the name.
+    *
+    * @return the MBean
+    */
+   public ObjectName getName()
+   {
+      return name;
+   }
+
+   /**
+    * Get the method.
+    *
+    * @return the operation
+    */
+   public String getMethod()
+   {
+      return method;
+   }
+
+   /**
+    * Get the args.
+    *
+    * @return the arguments, or null
+    */
+   public Object[] getArgs()
+   {
+      return args;
+   }
+
+   /**
+    * Get the sig.
+    *
+    * @return the signature, or null
+    */
+   public String[] getSig()
+   {
+      return sig;
+   }
+
+   @Override
+   public String toString()
+   {
+      return name.getCanonicalName() + " " + method + (args != null ? Arrays.asList(args).toString() : "[]");
+   }
+}
@@ -0,0 +1,98 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.jbossas.servermanager;
+
+/**
+ * The outcome of one {@link Invocation} of a {@link Server#invokeBatch} batch.
+ *
+ * @version $Revision: $
+ */
+public class InvocationResult
+{
+   private final Invocation invocation;
+
+   /** the value returned by the operation **/
+   private final Object result;
+
+   /** the failure, unwrapped like {@link Server#invoke}, or null on success **/
+   private final Throwable failure;
+
+   /**
+    * Create a new InvocationResult.
+    *
+    * @param invocation the invocation
+    * @param result the returned value
+    * @param failure the failure, or null on success
+    */
+   public InvocationResult(Invocation invocation, Object result, Throwable failure)
+   {
+      this.invocation = invocation;
+      this.result = result;
+      this.failure = failure;
+   }
+
+   /**
+    * Get the invocation.
+    *
+    * @return the invocation
+    */
+   public Invocation getInvocation()
+   {
+      return invocation;
+   }
+
+   /**
+    * Did the operation complete without error?
+    *
+    * @return whether the invocation succeeded
+    */
+   public boolean isSuccessful()
+   {
+      return failure == null;
+   }
+
+   /**
+    * Get the result.
+    *
+    * @return the value returned by the operation, null if it failed
+    */
+   public Object getResult()
+   {
+      return result;
+   }
+
+   /**
+    * Get the failure.
+    *
+    * @return the exception thrown by the operation, or null
+    */
+   public Throwable getFailure()
+   {
+      return failure;
+   }
+
+   @Override
+   public String toString()
+   {
+      return invocation + " [" + (isSuccessful() ? "ok: " + result : "failed: " + failure) + "]";
+   }
+}
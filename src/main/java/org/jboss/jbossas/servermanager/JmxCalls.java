@@ -0,0 +1,93 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.jbossas.servermanager;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs remote JMX calls under a deadline.
+ * 
+ * A call that has not returned when its deadline passes is abandoned:
+ * its thread is interrupted and the caller gets an InterruptedIOException.
+ * An RMI call may ignore the interrupt and linger until its socket gives
+ * up, so the pool is unbounded and a wedged call never holds up the next.
+ *
+ * @version $Revision: $
+ */
+public final class JmxCalls
+{
+   /** runs the remote calls so they can be abandoned **/
+   private static final ExecutorService CALLS = ServerThreads.newUnboundedPool("ServerManager-jmx");
+
+   private JmxCalls()
+   {
+   }
+
+   /**
+    * Run a call, waiting for at most timeout for its result.
+    *
+    * @param what the call, for the timeout message
+    * @param timeout time (in ms) allowed for the call
+    * @param call the call
+    * @return the call's result
+    * @throws InterruptedIOException if the deadline passes, or the caller is interrupted, first
+    * @throws Exception whatever the call throws
+    */
+   public static <T> T call(String what, long timeout, Callable<T> call) throws Exception
+   {
+      Future<T> future = CALLS.submit(call);
+      try
+      {
+         return future.get(timeout, TimeUnit.MILLISECONDS);
+      }
+      catch (ExecutionException e)
+      {
+         Throwable cause = e.getCause();
+         if (cause instanceof Exception)
+         {
+            throw (Exception) cause;
+         }
+         if (cause instanceof Error)
+         {
+            throw (Error) cause;
+         }
+         throw e;
+      }
+      catch (TimeoutException e)
+      {
+         future.cancel(true);
+         throw new InterruptedIOException(what + " did not complete within " + timeout + " ms; abandoned.");
+      }
+      catch (InterruptedException e)
+      {
+         future.cancel(true);
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("Interrupted while waiting for " + what + ".");
+      }
+   }
+}
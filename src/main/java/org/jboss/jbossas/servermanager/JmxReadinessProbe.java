@@ -0,0 +1,103 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.jbossas.servermanager;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+/**
+ * Ready once the Started attribute of the jboss.system:type=Server
+ * MBean is true, ie. the server has completed its boot and deployments.
+ * The attribute is read through {@link Server#getServerConnection()},
+ * so the RMIAdaptor is looked up once and then reused by every poll.
+ *
+ * @version $Revision: $
+ */
+public class JmxReadinessProbe implements ReadinessProbe
+{
+   /** default time (in ms) allowed for the attribute read **/
+   public static final long DEFAULT_TIMEOUT = 3000;
+
+   /** the MBean holding the Started attribute **/
+   private static final ObjectName SERVER_NAME;
+
+   static
+   {
+      try
+      {
+         SERVER_NAME = new ObjectName("jboss.system","type","Server");
+      }
+      catch (MalformedObjectNameException mone)
+      {
+         // should never happen anyways
+         throw new RuntimeException("Bad object name, something is totally broken", mone);
+      }
+   }
+
+   private final long timeout;
+
+   /**
+    * Create a new JmxReadinessProbe with the default timeout.
+    */
+   public JmxReadinessProbe()
+   {
+      this(DEFAULT_TIMEOUT);
+   }
+
+   /**
+    * Create a new JmxReadinessProbe.
+    *
+    * @param timeout time (in ms) allowed for the lookup and attribute read
+    */
+   public JmxReadinessProbe(long timeout)
+   {
+      this.timeout = timeout;
+   }
+
+   public boolean isReady(final Server server) throws IOException
+   {
+      try
+      {
+         return Boolean.TRUE.equals(JmxCalls.call("Read of the Started attribute", timeout, new Callable<Object>()
+         {
+            public Object call() throws Exception
+            {
+               return server.getServerConnection().getAttribute(SERVER_NAME, "Started");
+            }
+         }));
+      }
+      catch (Exception e)
+      {
+         // not bound yet, not booted far enough to answer, or timed out
+         return false;
+      }
+   }
+
+   @Override
+   public String toString()
+   {
+      return "JMX Started attribute (" + timeout + " ms)";
+   }
+}
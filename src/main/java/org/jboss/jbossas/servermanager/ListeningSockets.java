@@ -0,0 +1,316 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.jbossas.servermanager;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The TCP sockets listening on this host, read from the Linux kernel's
+ * /proc/net/tcp and /proc/net/tcp6 tables.  Used to find out, before a
+ * server is launched, whether anything already holds one of its ports
+ * and which process that is.
+ *
+ * @version $Revision: $
+ */
+public class ListeningSockets
+{
+   /** where the kernel publishes the socket tables **/
+   private static final File PROC_NET = new File("/proc/net");
+
+   /** the socket state of a listening socket in the tables **/
+   private static final String STATE_LISTEN = "0A";
+
+   /** the prefix of a socket's file descriptor link target **/
+   private static final String SOCKET_LINK = "socket:[";
+
+   private final List<Listener> listeners;
+
+   /**
+    * A listening socket.
+    */
+   public static class Listener
+   {
+      private final InetAddress address;
+
+      private final int port;
+
+      private final long inode;
+
+      Listener(InetAddress address, int port, long inode)
+      {
+         this.address = address;
+         this.port = port;
+         this.inode = inode;
+      }
+
+      /**
+       * The local address.
+       *
+       * @return the address, the wildcard address for all interfaces
+       */
+      public InetAddress getAddress()
+      {
+         return address;
+      }
+
+      /**
+       * The local port.
+       *
+       * @return the port
+       */
+      public int getPort()
+      {
+         return port;
+      }
+
+      /**
+       * The inode of the socket, used to find its process.
+       *
+       * @return the inode, 0 if unknown
+       */
+      public long getInode()
+      {
+         return inode;
+      }
+
+      @Override
+      public String toString()
+      {
+         return address.getHostAddress() + ":" + port;
+      }
+   }
+
+   /**
+    * Create a new ListeningSockets.
+    *
+    * @param listeners the listening sockets
+    */
+   public ListeningSockets(List<Listener> listeners)
+   {
+      this.listeners = listeners;
+   }
+
+   /**
+    * Read the listening sockets of this host.
+    *
+    * @return the listening sockets, or null where /proc/net/tcp is not available
+    * @throws IOException for any error reading the tables
+    */
+   public static ListeningSockets read() throws IOException
+   {
+      List<Listener> listeners = new ArrayList<Listener>();
+      if (!read(new File(PROC_NET, "tcp"), listeners))
+      {
+         return null;
+      }
+      read(new File(PROC_NET, "tcp6"), listeners);
+      return new ListeningSockets(listeners);
+   }
+
+   /**
+    * Add the listening sockets of a table, if the table exists.
+    */
+   private static boolean read(File table, List<Listener> listeners) throws IOException
+   {
+      BufferedReader reader;
+      try
+      {
+         reader = new BufferedReader(new FileReader(table));
+      }
+      catch (FileNotFoundException e)
+      {
+         return false;
+      }
+      try
+      {
+         listeners.addAll(parse(reader));
+         return true;
+      }
+      finally
+      {
+         reader.close();
+      }
+   }
+
+   /**
+    * Parse the listening sockets of a /proc/net/tcp or /proc/net/tcp6 table.
+    *
+    * @param reader the table
+    * @return the sockets in LISTEN state
+    * @throws IOException for any error reading the table
+    */
+   public static List<Listener> parse(BufferedReader reader) throws IOException
+   {
+      List<Listener> listeners = new ArrayList<Listener>();
+      // skip the header
+      String line = reader.readLine();
+      while ((line = reader.readLine()) != null)
+      {
+         String[] fields = line.trim().split("\\s+");
+         if (fields.length < 10 || !STATE_LISTEN.equals(fields[3]))
+         {
+            continue;
+         }
+         int colon = fields[1].indexOf(':');
+         if (colon < 0)
+         {
+            continue;
+         }
+         InetAddress address = parseAddress(fields[1].substring(0, colon));
+         int port = Integer.parseInt(fields[1].substring(colon + 1), 16);
+         listeners.add(new Listener(address, port, Long.parseLong(fields[9])));
+      }
+      return listeners;
+   }
+
+   /**
+    * The tables hold addresses as 32 bit words in host byte order,
+    * which is little endian on the platforms we run on.
+    */
+   private static InetAddress parseAddress(String hex) throws UnknownHostException
+   {
+      byte[] bytes = new byte[hex.length() / 2];
+      for (int word = 0; word < bytes.length; word += 4)
+      {
+         for (int i = 0; i < 4; i++)
+         {
+            int at = (word + 3 - i) * 2;
+            bytes[word + i] = (byte) Integer.parseInt(hex.substring(at, at + 2), 16);
+         }
+      }
+      return InetAddress.getByAddress(bytes);
+   }
+
+   /**
+    * Find the sockets that stop a server from binding a port on any of
+    * the given addresses.
+    *
+    * @param addresses the addresses the server binds to
+    * @param port the port
+    * @return the listening sockets in the way
+    */
+   public List<Listener> find(InetAddress[] addresses, int port)
+   {
+      List<Listener> found = new ArrayList<Listener>();
+      for (Listener listener : listeners)
+      {
+         if (listener.getPort() != port)
+         {
+            continue;
+         }
+         for (InetAddress address : addresses)
+         {
+            if (address.isAnyLocalAddress() || listener.getAddress().isAnyLocalAddress()
+                  || address.equals(listener.getAddress()))
+            {
+               found.add(listener);
+               break;
+            }
+         }
+      }
+      return found;
+   }
+
+   /**
+    * Get all listening sockets.
+    *
+    * @return the listening sockets
+    */
+   public List<Listener> getListeners()
+   {
+      return Collections.unmodifiableList(listeners);
+   }
+
+   /**
+    * Describe the process owning a socket.  Only processes whose file
+    * descriptors this user may read can be found.
+    *
+    * @param listener the socket
+    * @return the pid and command line, or null if not found
+    */
+   public static String describeOwner(Listener listener)
+   {
+      if (listener.getInode() == 0)
+      {
+         return null;
+      }
+      String target = SOCKET_LINK + listener.getInode() + "]";
+      File[] processes = new File("/proc").listFiles();
+      if (processes == null)
+      {
+         return null;
+      }
+      for (File process : processes)
+      {
+         if (!isPid(process.getName()))
+         {
+            continue;
+         }
+         File[] fds = new File(process, "fd").listFiles();
+         if (fds == null)
+         {
+            continue;
+         }
+         for (File fd : fds)
+         {
+            try
+            {
+               if (target.equals(Files.readSymbolicLink(fd.toPath()).toString()))
+               {
+                  long pid = Long.parseLong(process.getName());
+                  Optional<ProcessHandle> handle = ProcessHandle.of(pid);
+                  String command = handle.isPresent() ? handle.get().info().commandLine().orElse("?") : "?";
+                  return "pid " + pid + " (" + command + ")";
+               }
+            }
+            catch (IOException e)
+            {
+               // closed meanwhile or not ours to read
+            }
+         }
+      }
+      return null;
+   }
+
+   private static boolean isPid(String name)
+   {
+      for (int i = 0; i < name.length(); i++)
+      {
+         if (!Character.isDigit(name.charAt(i)))
+         {
+            return false;
+         }
+      }
+      return name.length() > 0;
+   }
+}
@@ -0,0 +1,80 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.jbossas.servermanager;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ready once the server's process is running and has written a line
+ * matching its started pattern.
+ *
+ * @see Server#setStartedPattern(String)
+ * @version $Revision: $
+ */
+public class LogPatternReadinessProbe implements ReadinessProbe
+{
+   /** how long (in ms) to wait for the line, 0 to just check **/
+   private final long timeout;
+
+   /**
+    * Create a new LogPatternReadinessProbe which does not wait.
+    */
+   public LogPatternReadinessProbe()
+   {
+      this(0);
+   }
+
+   /**
+    * Create a new LogPatternReadinessProbe.
+    *
+    * @param timeout how long (in ms) to wait for the started line
+    */
+   public LogPatternReadinessProbe(long timeout)
+   {
+      this.timeout = timeout;
+   }
+
+   public boolean isReady(Server server) throws IOException
+   {
+      if (!server.isRunning())
+      {
+         return false;
+      }
+      try
+      {
+         return server.awaitStartedLine(timeout, TimeUnit.MILLISECONDS);
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("Interrupted waiting for the started line of " + server.getName());
+      }
+   }
+
+   @Override
+   public String toString()
+   {
+      return "log pattern (" + timeout + " ms)";
+   }
+}
@@ -0,0 +1,291 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.jbossas.servermanager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Queries a server log by capture time and level through its sidecar
+ * index, reading only the part of the log that matches.
+ * 
+ * The index holds a fixed size record (offset, capture time, level) for
+ * every WARN, ERROR and FATAL line and for the first line captured in
+ * each second. Level queries for WARN and above are answered from the
+ * index alone; time ranges are resolved to the second.
+ * 
+ * Only the current log file is indexed, not its rolled generations.
+ *
+ * @see Server#getLogQuery()
+ * @version $Revision: $
+ */
+public class LogQuery
+{
+   /**
+    * Log levels, least severe first.
+    */
+   public enum Level
+   {
+      TRACE, DEBUG, INFO, WARN, ERROR, FATAL;
+
+      /** the level's code in the index, 0 being unknown **/
+      public byte code()
+      {
+         return (byte) (ordinal() + 1);
+      }
+   }
+
+   /** bytes per index record: offset, time, level **/
+   public static final int RECORD_SIZE = 8 + 8 + 1;
+
+   /** how far into a line the level is looked for **/
+   private static final int LEVEL_SCAN = 80;
+
+   private static final Pattern LEVEL = Pattern.compile("\\b(TRACE|DEBUG|INFO|WARN|ERROR|FATAL)\\b");
+
+   private final File log;
+
+   private final File index;
+
+   /**
+    * Create a new LogQuery.
+    *
+    * @param log the log file
+    * @param index its index
+    */
+   public LogQuery(File log, File index)
+   {
+      this.log = log;
+      this.index = index;
+   }
+
+   /**
+    * The lines captured in a time range.
+    *
+    * @param from the start of the range (ms since the epoch), inclusive to the second
+    * @param to the end of the range (ms since the epoch), exclusive
+    * @return the lines
+    * @throws IOException if the log or index cannot be read
+    */
+   public List<String> lines(long from, long to) throws IOException
+   {
+      return lines(null, from, to);
+   }
+
+   /**
+    * The lines at or above a level.
+    *
+    * @param minimum the least severe level to return
+    * @return the lines
+    * @throws IOException if the log or index cannot be read
+    */
+   public List<String> lines(Level minimum) throws IOException
+   {
+      return lines(minimum, 0, Long.MAX_VALUE);
+   }
+
+   /**
+    * The lines at or above a level captured in a time range.
+    *
+    * @param minimum the least severe level to return, null for all lines
+    * @param from the start of the range (ms since the epoch), inclusive to the second
+    * @param to the end of the range (ms since the epoch), exclusive
+    * @return the lines
+    * @throws IOException if the log or index cannot be read
+    */
+   public List<String> lines(Level minimum, long from, long to) throws IOException
+   {
+      List<String> lines = new ArrayList<String>();
+      if (!log.exists() || !index.exists())
+      {
+         return lines;
+      }
+
+      FileChannel indexChannel = FileChannel.open(index.toPath(), StandardOpenOption.READ);
+      FileChannel logChannel = FileChannel.open(log.toPath(), StandardOpenOption.READ);
+      try
+      {
+         long records = indexChannel.size() / RECORD_SIZE;
+         // the first line of every second is indexed, so the range starts at a record
+         long first = firstAtOrAfter(indexChannel, records, from - Math.floorMod(from, 1000L));
+         long last = firstAtOrAfter(indexChannel, records, to);
+         ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+
+         if (minimum != null && minimum.compareTo(Level.WARN) >= 0)
+         {
+            // every such line is indexed
+            for (long i = first; i < last; i++)
+            {
+               read(indexChannel, i, record);
+               if (record.get(16) >= minimum.code())
+               {
+                  readLines(logChannel, record.getLong(0), logChannel.size(), null, 1, lines);
+               }
+            }
+            return lines;
+         }
+
+         // start at the first record of the range, stop at the first record after it
+         if (first >= records)
+         {
+            return lines;
+         }
+         read(indexChannel, first, record);
+         long start = record.getLong(0);
+         long end = logChannel.size();
+         if (last < records)
+         {
+            read(indexChannel, last, record);
+            end = record.getLong(0);
+         }
+         readLines(logChannel, start, end, minimum, Integer.MAX_VALUE, lines);
+         return lines;
+      }
+      finally
+      {
+         logChannel.close();
+         indexChannel.close();
+      }
+   }
+
+   /**
+    * The level named near the start of a line.
+    *
+    * @param chars the characters of the line
+    * @param from where the line starts
+    * @param to where the characters end
+    * @return the level's code, 0 if none is found
+    */
+   static byte levelOf(char[] chars, int from, int to)
+   {
+      return levelOf(CharBuffer.wrap(chars, from, Math.min(to, from + LEVEL_SCAN) - from));
+   }
+
+   private static byte levelOf(CharSequence line)
+   {
+      Matcher matcher = LEVEL.matcher(line.length() > LEVEL_SCAN ? line.subSequence(0, LEVEL_SCAN) : line);
+      return matcher.find() ? Level.valueOf(matcher.group(1)).code() : 0;
+   }
+
+   /**
+    * Binary search for the first record captured at or after time.
+    */
+   private static long firstAtOrAfter(FileChannel indexChannel, long records, long time) throws IOException
+   {
+      ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+      long low = 0;
+      long high = records;
+      while (low < high)
+      {
+         long middle = (low + high) >>> 1;
+         read(indexChannel, middle, record);
+         if (record.getLong(8) < time)
+         {
+            low = middle + 1;
+         }
+         else
+         {
+            high = middle;
+         }
+      }
+      return low;
+   }
+
+   private static void read(FileChannel indexChannel, long record, ByteBuffer buffer) throws IOException
+   {
+      buffer.clear();
+      long position = record * RECORD_SIZE;
+      while (buffer.hasRemaining() && indexChannel.read(buffer, position + buffer.position()) > 0)
+      {
+      }
+   }
+
+   /**
+    * Read the lines between two offsets of the log.
+    *
+    * @param minimum the least severe level to keep, null for all
+    * @param max the most lines to read
+    */
+   private static void readLines(FileChannel logChannel, long start, long end, Level minimum, int max, List<String> lines)
+         throws IOException
+   {
+      ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+      ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+      Charset charset = Charset.defaultCharset();
+      long position = start;
+      int count = 0;
+      while (position < end && count < max)
+      {
+         buffer.clear();
+         buffer.limit((int) Math.min(buffer.capacity(), end - position));
+         int read = logChannel.read(buffer, position);
+         if (read <= 0)
+         {
+            break;
+         }
+         position += read;
+         buffer.flip();
+         while (buffer.hasRemaining() && count < max)
+         {
+            byte b = buffer.get();
+            if (b == '\n')
+            {
+               count += keep(line, charset, minimum, lines);
+            }
+            else
+            {
+               line.write(b);
+            }
+         }
+      }
+      if (line.size() > 0 && count < max)
+      {
+         keep(line, charset, minimum, lines);
+      }
+   }
+
+   private static int keep(ByteArrayOutputStream bytes, Charset charset, Level minimum, List<String> lines)
+   {
+      String line = bytes.toString(charset);
+      bytes.reset();
+      if (line.endsWith("\r"))
+      {
+         line = line.substring(0, line.length() - 1);
+      }
+      if (minimum != null && levelOf(line) < minimum.code())
+      {
+         return 0;
+      }
+      lines.add(line);
+      return 1;
+   }
+}
@@ -0,0 +1,243 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.jbossas.servermanager;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Rolls server log files into compressed generations.
+ * 
+ * A rolled file is only renamed by the caller; shifting the older
+ * generations (log.1.gz becomes log.2.gz, ...) and gzipping the segment
+ * into log.1.gz happen on the compressor, one roll at a time.
+ * 
+ * A segment (log.&lt;time&gt;-&lt;n&gt;.rolling) is compressed into a
+ * temporary log.&lt;time&gt;-&lt;n&gt;.rolling.gz that only replaces
+ * log.1.gz once complete, and the segment is deleted last.  A JVM that
+ * dies in between leaves the segment behind, never a truncated
+ * generation; {@link #recover(File, int)} archives such segments when the
+ * log is next used.
+ *
+ * @version $Revision: $
+ */
+public class LogRoller
+{
+   private final Executor compressor;
+
+   /** the suffix of segments waiting to be compressed **/
+   private static final String SEGMENT_SUFFIX = ".rolling";
+
+   /** the suffix of a segment's compressed copy while it is being written **/
+   private static final String PARTIAL_SUFFIX = SEGMENT_SUFFIX + ".gz";
+
+   /** segments handed to the compressor and not yet archived **/
+   private final Set<File> pending = ConcurrentHashMap.newKeySet();
+
+   /** keeps segment names of the same millisecond unique **/
+   private final AtomicLong sequence = new AtomicLong();
+
+   /**
+    * Create a new LogRoller.
+    *
+    * @param compressor a single thread to compress closed segments on
+    */
+   public LogRoller(Executor compressor)
+   {
+      this.compressor = compressor;
+   }
+
+   /**
+    * Move a closed log file out of the way and archive it in the background
+    * as the newest of generations compressed copies.
+    *
+    * @param file the log file, which must not be open for writing
+    * @param generations how many compressed generations to keep, 0 for none
+    * @throws IOException if the file cannot be moved
+    */
+   public void roll(final File file, final int generations) throws IOException
+   {
+      if (!file.exists() || file.length() == 0)
+      {
+         return;
+      }
+
+      File segment;
+      while (true)
+      {
+         // never over a segment still waiting, whoever left it there
+         segment = new File(file.getParentFile(), file.getName() + "." + System.currentTimeMillis() + "-"
+               + sequence.incrementAndGet() + SEGMENT_SUFFIX);
+         try
+         {
+            Files.move(file.toPath(), segment.toPath());
+            break;
+         }
+         catch (FileAlreadyExistsException e)
+         {
+            // try the next name
+         }
+      }
+      schedule(file, segment, generations);
+   }
+
+   /**
+    * Archive the segments of a log file that an earlier JVM rolled but did
+    * not get to compress, oldest first, and drop their partial compressed
+    * copies.  Segments this roller is still working on are left alone.
+    *
+    * @param file the log file
+    * @param generations how many compressed generations to keep, 0 for none
+    */
+   public void recover(final File file, final int generations)
+   {
+      final String prefix = file.getName() + ".";
+      File[] partials = file.getParentFile().listFiles(new FileFilter()
+      {
+         public boolean accept(File candidate)
+         {
+            String name = candidate.getName();
+            if (!name.startsWith(prefix) || !name.endsWith(PARTIAL_SUFFIX))
+            {
+               return false;
+            }
+            File segment = new File(candidate.getParentFile(), name.substring(0, name.length() - ".gz".length()));
+            return !pending.contains(segment.getAbsoluteFile());
+         }
+      });
+      if (partials != null)
+      {
+         for (File partial : partials)
+         {
+            partial.delete();
+         }
+      }
+
+      File[] segments = file.getParentFile().listFiles(new FileFilter()
+      {
+         public boolean accept(File candidate)
+         {
+            return candidate.getName().startsWith(prefix) && candidate.getName().endsWith(SEGMENT_SUFFIX)
+                  && !pending.contains(candidate.getAbsoluteFile());
+         }
+      });
+      if (segments == null)
+      {
+         return;
+      }
+      Arrays.sort(segments, new Comparator<File>()
+      {
+         public int compare(File one, File two)
+         {
+            int byTime = Long.compare(one.lastModified(), two.lastModified());
+            return byTime != 0 ? byTime : one.getName().compareTo(two.getName());
+         }
+      });
+      for (File segment : segments)
+      {
+         schedule(file, segment, generations);
+      }
+   }
+
+   private void schedule(final File file, final File segment, final int generations)
+   {
+      pending.add(segment.getAbsoluteFile());
+      compressor.execute(new Runnable()
+      {
+         public void run()
+         {
+            try
+            {
+               archive(file, segment, generations);
+            }
+            finally
+            {
+               pending.remove(segment.getAbsoluteFile());
+            }
+         }
+      });
+   }
+
+   /**
+    * The name of a compressed generation of a log file.
+    *
+    * @param file the log file
+    * @param generation the generation, 1 being the newest
+    * @return the compressed file
+    */
+   public static File generation(File file, int generation)
+   {
+      return new File(file.getParentFile(), file.getName() + "." + generation + ".gz");
+   }
+
+   private void archive(File file, File segment, int generations)
+   {
+      File partial = new File(segment.getParentFile(), segment.getName() + ".gz");
+      try
+      {
+         if (generations > 0)
+         {
+            OutputStream out = new GZIPOutputStream(Files.newOutputStream(partial.toPath()), 64 * 1024);
+            try
+            {
+               Files.copy(segment.toPath(), out);
+            }
+            finally
+            {
+               out.close();
+            }
+
+            Files.deleteIfExists(generation(file, generations).toPath());
+            for (int i = generations - 1; i > 0; i--)
+            {
+               File older = generation(file, i);
+               if (older.exists())
+               {
+                  Files.move(older.toPath(), generation(file, i + 1).toPath(), StandardCopyOption.REPLACE_EXISTING);
+               }
+            }
+            Files.move(partial.toPath(), generation(file, 1).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                  StandardCopyOption.ATOMIC_MOVE);
+         }
+         Files.delete(segment.toPath());
+      }
+      catch (IOException e)
+      {
+         // the segment stays for the next recover()
+         System.err.println("Could not archive log segment " + segment.getAbsolutePath());
+         e.printStackTrace();
+         partial.delete();
+      }
+   }
+}
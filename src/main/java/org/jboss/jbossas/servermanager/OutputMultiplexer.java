@@ -0,0 +1,363 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.jbossas.servermanager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drains the output and error streams of all managed server processes
+ * from a small fixed set of reader threads.
+ * 
+ * Process pipes cannot be registered with a java.nio Selector, so each
+ * reader thread polls its streams with non-blocking reads (only what
+ * {@link InputStream#available()} reports) and idles briefly when none
+ * of them has data. Each complete line is read exactly once and handed
+ * to the log file, the console, the server and the output listeners.
+ * 
+ * A stream never blocks its reader, not even at its end: a descendant
+ * that outlives the process may hold the pipe open, so once the process
+ * has exited a stream counts as ended when it has stayed empty for
+ * EXIT_QUIET, or when the deadline given to {@link #detach} passes.
+ *
+ * @version $Revision: $
+ */
+public class OutputMultiplexer
+{
+   /** shortest and longest pause (in ms) when no stream had data **/
+   private static final long IDLE_MIN = 2;
+
+   private static final long IDLE_MAX = 50;
+
+   /** longest line (in bytes) assembled; longer ones are dispatched in pieces **/
+   private static final int MAX_LINE = 64 * 1024;
+
+   /** time (in ns) the stream of an exited process must stay empty to count as ended **/
+   private static final long EXIT_QUIET = TimeUnit.MILLISECONDS.toNanos(200);
+
+   private final StreamReader[] readers;
+
+   private final List<OutputListener> listeners;
+
+   /** round robin assignment of streams to readers **/
+   private final AtomicInteger next = new AtomicInteger();
+
+   /**
+    * Create a new OutputMultiplexer.
+    *
+    * @param threads the number of reader threads
+    * @param listeners the listeners to notify of each line
+    */
+   public OutputMultiplexer(int threads, List<OutputListener> listeners)
+   {
+      this.readers = new StreamReader[Math.max(1, threads)];
+      this.listeners = listeners;
+   }
+
+   /**
+    * Start draining a server process' output and error streams.
+    *
+    * @param server the server
+    * @param process its process
+    * @param outlog where to write the output stream
+    * @param errorlog where to write the error stream
+    */
+   public void attach(Server server, Process process, PrintWriter outlog, PrintWriter errorlog)
+   {
+      reader().add(new Source(server, process, process.getInputStream(), outlog, false));
+      reader().add(new Source(server, process, process.getErrorStream(), errorlog, true));
+   }
+
+   /**
+    * Stop draining a server's streams. Waits for what the (exited)
+    * process left in its pipes to be read, for at most timeout, even
+    * if the thread is interrupted.  The streams are given up at the
+    * deadline, with whatever line they were assembling.
+    *
+    * @param server the server
+    * @param timeout time (in ms) to wait for the streams to reach their end
+    */
+   public void detach(Server server, long timeout)
+   {
+      final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+      boolean interrupted = false;
+      for (StreamReader reader : readers)
+      {
+         if (reader == null)
+         {
+            continue;
+         }
+         for (Source source : reader.sources)
+         {
+            if (source.server != server)
+            {
+               continue;
+            }
+            source.deadline = deadline;
+            source.detaching = true;
+            while (true)
+            {
+               try
+               {
+                  source.done.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                  break;
+               }
+               catch (InterruptedException e)
+               {
+                  // keep draining, the interrupt is restored below
+                  interrupted = true;
+               }
+            }
+            reader.sources.remove(source);
+         }
+      }
+      if (interrupted)
+      {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+    * Pick the next reader, starting it on first use.
+    */
+   private synchronized StreamReader reader()
+   {
+      int index = (next.getAndIncrement() & Integer.MAX_VALUE) % readers.length;
+      if (readers[index] == null)
+      {
+         readers[index] = new StreamReader();
+         ServerThreads.start("ServerManager-output-" + (index + 1), readers[index]);
+      }
+      return readers[index];
+   }
+
+   /**
+    * Hand a complete line to everyone interested.
+    */
+   private void dispatch(Source source, String line)
+   {
+      if (source.log != null)
+      {
+         source.log.println(line);
+      }
+      System.out.println(line);
+      source.server.outputLine(line);
+      for (OutputListener listener : listeners)
+      {
+         try
+         {
+            listener.outputLine(source.server, line, source.error);
+         }
+         catch (RuntimeException e)
+         {
+            e.printStackTrace();
+         }
+      }
+   }
+
+   /**
+    * One stream of one process, and the line being assembled from it.
+    */
+   private class Source
+   {
+      private final Server server;
+
+      private final Process process;
+
+      private final InputStream in;
+
+      private final PrintWriter log;
+
+      private final boolean error;
+
+      private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+
+      /** released once the stream has reached its end **/
+      private final CountDownLatch done = new CountDownLatch(1);
+
+      /** when (System.nanoTime) the stream last had data, or the process was seen gone **/
+      private long lastActive = System.nanoTime();
+
+      private boolean exited;
+
+      /** when (System.nanoTime) to give up on the stream, once detaching **/
+      private volatile long deadline;
+
+      private volatile boolean detaching;
+
+      Source(Server server, Process process, InputStream in, PrintWriter log, boolean error)
+      {
+         this.server = server;
+         this.process = process;
+         this.in = in;
+         this.log = log;
+         this.error = error;
+      }
+
+      /**
+       * Read what is available without blocking.
+       *
+       * @param buffer scratch space
+       * @return the number of bytes read, or -1 once the stream has ended
+       */
+      int pump(byte[] buffer)
+      {
+         try
+         {
+            final long now = System.nanoTime();
+            if (detaching && now - deadline >= 0)
+            {
+               return -1;
+            }
+            int available = in.available();
+            if (available <= 0)
+            {
+               if (!exited && !process.isAlive())
+               {
+                  // the pipe may still hold the last output, give it time to show
+                  exited = true;
+                  lastActive = now;
+               }
+               return exited && now - lastActive >= EXIT_QUIET ? -1 : 0;
+            }
+
+            int read = in.read(buffer, 0, Math.min(available, buffer.length));
+            if (read < 0)
+            {
+               return -1;
+            }
+            lastActive = now;
+            for (int i = 0; i < read; i++)
+            {
+               if (buffer[i] == '\n')
+               {
+                  emit();
+               }
+               else
+               {
+                  line.write(buffer[i]);
+                  if (line.size() >= MAX_LINE)
+                  {
+                     // never wait for a newline that may not come
+                     emit();
+                  }
+               }
+            }
+            return read;
+         }
+         catch (IOException e)
+         {
+            // the stream was closed underneath us
+            return -1;
+         }
+      }
+
+      /**
+       * Dispatch the line assembled so far.
+       */
+      void emit()
+      {
+         byte[] bytes = line.toByteArray();
+         int length = bytes.length;
+         if (length > 0 && bytes[length - 1] == '\r')
+         {
+            length--;
+         }
+         line.reset();
+         dispatch(this, new String(bytes, 0, length, Charset.defaultCharset()));
+      }
+
+      /**
+       * The stream has ended: dispatch any unterminated last line.
+       */
+      void finish()
+      {
+         if (line.size() > 0)
+         {
+            emit();
+         }
+         done.countDown();
+      }
+   }
+
+   /**
+    * A thread polling a set of streams.
+    */
+   private class StreamReader implements Runnable
+   {
+      private final List<Source> sources = new CopyOnWriteArrayList<Source>();
+
+      void add(Source source)
+      {
+         sources.add(source);
+      }
+
+      public void run()
+      {
+         final byte[] buffer = new byte[8192];
+         long idle = IDLE_MIN;
+         while (true)
+         {
+            boolean progress = false;
+            for (Source source : sources)
+            {
+               if (source.done.getCount() == 0)
+               {
+                  continue;
+               }
+               int read = source.pump(buffer);
+               if (read < 0)
+               {
+                  source.finish();
+               }
+               else if (read > 0)
+               {
+                  progress = true;
+               }
+            }
+
+            if (progress)
+            {
+               idle = IDLE_MIN;
+               continue;
+            }
+            try
+            {
+               Thread.sleep(idle);
+            }
+            catch (InterruptedException e)
+            {
+               return;
+            }
+            idle = Math.min(IDLE_MAX, idle * 2);
+         }
+      }
+   }
+}
@@ -0,0 +1,221 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.jbossas.servermanager;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps the most recent lines of a server's output in a fixed amount
+ * of off-heap memory.
+ * 
+ * Lines are stored as UTF-8 in a direct buffer used as a ring, each
+ * framed by its length before and after so the newest lines can be
+ * found by walking back from the write position. When a line does not
+ * fit, the oldest lines are dropped; a line longer than the whole
+ * buffer is truncated.
+ *
+ * @version $Revision: $
+ */
+public class OutputRingBuffer
+{
+   /** bytes framing each line: its length before and after **/
+   private static final int FRAME = 8;
+
+   /** bytes encoded at a time **/
+   private static final int CHUNK = 512;
+
+   private final ByteBuffer ring;
+
+   private final int capacity;
+
+   private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+         .onMalformedInput(CodingErrorAction.REPLACE)
+         .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+   /** reused to encode a line a chunk at a time **/
+   private final ByteBuffer scratch = ByteBuffer.allocate(CHUNK);
+
+   /** absolute (ever growing) positions of the oldest byte and of the next write **/
+   private long start;
+
+   private long end;
+
+   /** number of lines held **/
+   private int lines;
+
+   /**
+    * Create a new OutputRingBuffer.
+    *
+    * @param capacity the size (in bytes) of the buffer
+    */
+   public OutputRingBuffer(int capacity)
+   {
+      if (capacity <= FRAME)
+      {
+         throw new IllegalArgumentException("Capacity too small: " + capacity);
+      }
+      this.capacity = capacity;
+      this.ring = ByteBuffer.allocateDirect(capacity);
+   }
+
+   /**
+    * Append a line, dropping the oldest lines as needed.
+    *
+    * @param line the line
+    */
+   public synchronized void add(String line)
+   {
+      CharBuffer chars = CharBuffer.wrap(line);
+      encoder.reset();
+      int length = 0;
+      boolean done = false;
+      while (!done)
+      {
+         scratch.clear();
+         // never more than fits, overflow with no progress just truncates the line
+         scratch.limit(Math.min(CHUNK, capacity - FRAME - length));
+         if (encoder.encode(chars, scratch, true).isUnderflow())
+         {
+            encoder.flush(scratch);
+            done = true;
+         }
+         else if (scratch.position() == 0)
+         {
+            done = true;
+         }
+         scratch.flip();
+
+         // drop the oldest lines as the new one grows into them
+         int chunk = scratch.remaining();
+         while (capacity - (end - start) < FRAME + length + chunk)
+         {
+            start += FRAME + getInt(start);
+            lines--;
+         }
+         for (int i = 0; i < chunk; i++)
+         {
+            ring.put(index(end + 4 + length + i), scratch.get(i));
+         }
+         length += chunk;
+      }
+
+      putInt(end, length);
+      putInt(end + 4 + length, length);
+      end += FRAME + length;
+      lines++;
+   }
+
+   /**
+    * The newest lines, oldest first.
+    *
+    * @param count the most lines to return
+    * @return the lines
+    */
+   public synchronized List<String> tail(int count)
+   {
+      int n = Math.min(count, lines);
+      if (n <= 0)
+      {
+         return Collections.emptyList();
+      }
+
+      // walk back over the trailing lengths to the first wanted line
+      long position = end;
+      for (int i = 0; i < n; i++)
+      {
+         position -= FRAME + getInt(position - 4);
+      }
+
+      List<String> result = new ArrayList<String>(n);
+      for (int i = 0; i < n; i++)
+      {
+         int length = getInt(position);
+         byte[] bytes = new byte[length];
+         for (int j = 0; j < length; j++)
+         {
+            bytes[j] = ring.get(index(position + 4 + j));
+         }
+         result.add(new String(bytes, StandardCharsets.UTF_8));
+         position += FRAME + length;
+      }
+      return result;
+   }
+
+   /**
+    * The number of lines held.
+    *
+    * @return the line count
+    */
+   public synchronized int size()
+   {
+      return lines;
+   }
+
+   /**
+    * The size (in bytes) of the buffer.
+    *
+    * @return the capacity
+    */
+   public int capacity()
+   {
+      return capacity;
+   }
+
+   /**
+    * Drop all lines.
+    */
+   public synchronized void clear()
+   {
+      start = end = 0;
+      lines = 0;
+   }
+
+   private int index(long position)
+   {
+      return (int) (position % capacity);
+   }
+
+   private int getInt(long position)
+   {
+      int value = 0;
+      for (int i = 0; i < 4; i++)
+      {
+         value = (value << 8) | (ring.get(index(position + i)) & 0xff);
+      }
+      return value;
+   }
+
+   private void putInt(long position, int value)
+   {
+      for (int i = 0; i < 4; i++)
+      {
+         ring.put(index(position + i), (byte) (value >>> (24 - 8 * i)));
+      }
+   }
+}
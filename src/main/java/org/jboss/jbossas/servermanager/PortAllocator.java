@@ -0,0 +1,282 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.jbossas.servermanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reserves a distinct port offset for each server, so that many servers
+ * can run side by side on one host.  Offsets come in blocks of
+ * {@link #BLOCK_SIZE}, matching the AS service binding sets (ports-01 is
+ * offset 100, ports-02 is offset 200, ...).  Offset 0, the configured
+ * ports, is never handed out so allocated servers stay clear of servers
+ * with fixed ports.
+ * 
+ * Stock configurations define ports-01 to ports-03, hence the default of
+ * {@link #DEFAULT_MAX_BLOCKS}: a server started with a binding set its
+ * configuration lacks does not come up, so handing out a fourth offset
+ * would only trade a clear refusal for a failed start.  Configurations
+ * with more binding sets can allow more.
+ * 
+ * An offset is held through a lock file in the lock directory, so that
+ * allocators of other JVMs on the host sharing that directory (parallel
+ * builds, say) never hand out the same offset.  The lock is let go when
+ * the offset is released or the JVM exits.
+ *
+ * @see Server#setAllocatePorts(boolean)
+ * @version $Revision: $
+ */
+public class PortAllocator
+{
+   /** the distance between two port offsets **/
+   public static final int BLOCK_SIZE = 100;
+
+   /** the number of binding sets in stock configurations **/
+   public static final int DEFAULT_MAX_BLOCKS = 3;
+
+   /** the number of blocks above the configured ports that may be handed out **/
+   private final int maxBlocks;
+
+   /** where the lock files are kept **/
+   private final File lockDir;
+
+   /** the reservation of each reserved offset **/
+   private final ConcurrentMap<Integer, Reservation> reserved = new ConcurrentHashMap<Integer, Reservation>();
+
+   /**
+    * Create a new PortAllocator keeping its locks in the temporary directory.
+    *
+    * @param maxBlocks how many offsets may be handed out
+    */
+   public PortAllocator(int maxBlocks)
+   {
+      this(maxBlocks, new File(System.getProperty("java.io.tmpdir")));
+   }
+
+   /**
+    * Create a new PortAllocator.
+    *
+    * @param maxBlocks how many offsets may be handed out
+    * @param lockDir where to keep the lock files, shared by all JVMs on the host
+    */
+   public PortAllocator(int maxBlocks, File lockDir)
+   {
+      this.maxBlocks = maxBlocks;
+      this.lockDir = lockDir;
+   }
+
+   /**
+    * Reserve an offset that no other allocator on the host holds and
+    * whose ports are free on the server's host, and assign it to the
+    * server.  A server keeps the offset it already holds.
+    *
+    * @param server the server
+    * @return the offset
+    * @throws IOException if every offset is taken or in use
+    */
+   public int reserve(Server server) throws IOException
+   {
+      int current = server.getPortOffset();
+      if (current != 0 && getHolder(current) == server)
+      {
+         return current;
+      }
+
+      for (int block = 1; block <= maxBlocks; block++)
+      {
+         Integer offset = Integer.valueOf(block * BLOCK_SIZE);
+         Reservation reservation = new Reservation(server);
+         if (reserved.putIfAbsent(offset, reservation) != null)
+         {
+            continue;
+         }
+         boolean taken = false;
+         try
+         {
+            taken = reservation.lock(offset.intValue()) && isFree(server, offset.intValue());
+         }
+         finally
+         {
+            if (!taken)
+            {
+               // also when the lock or the check failed, or the offset would leak
+               reserved.remove(offset, reservation);
+               reservation.unlock();
+            }
+         }
+         if (taken)
+         {
+            release(server, offset);
+            server.setPortOffset(offset.intValue());
+            return offset.intValue();
+         }
+      }
+      throw new IOException("No free ports for server \"" + server.getName() + "\" within " + maxBlocks
+            + " offsets of " + BLOCK_SIZE + "; each offset needs a service binding set (ports-01, ports-02, ...) in the"
+            + " server configuration, raise " + ServerManager.SYSTEM_PROPERTY_JBOSSAS_PORT_BLOCKS + " once they exist");
+   }
+
+   /**
+    * Give up the offset held by a server and return it to its configured ports.
+    *
+    * @param server the server
+    */
+   public void release(Server server)
+   {
+      release(server, null);
+      server.setPortOffset(0);
+   }
+
+   /**
+    * Get the server holding an offset.
+    *
+    * @param offset the offset
+    * @return the server, or null if the offset is not reserved by this allocator
+    */
+   public Server getHolder(int offset)
+   {
+      Reservation reservation = reserved.get(Integer.valueOf(offset));
+      return reservation == null ? null : reservation.server;
+   }
+
+   /**
+    * Drop every offset held by a server except one.
+    */
+   private void release(Server server, Integer keep)
+   {
+      for (Iterator<Map.Entry<Integer, Reservation>> iter = reserved.entrySet().iterator(); iter.hasNext();)
+      {
+         Map.Entry<Integer, Reservation> entry = iter.next();
+         if (entry.getValue().server == server && !entry.getKey().equals(keep))
+         {
+            iter.remove();
+            entry.getValue().unlock();
+         }
+      }
+   }
+
+   /**
+    * Can the server's ports, moved by an offset, be bound?
+    */
+   private static boolean isFree(Server server, int offset) throws IOException
+   {
+      InetAddress address = InetAddress.getByName(server.getHost());
+      if (server.hasWebServer() && !canBind(address, server.getHttpPort().intValue() + offset))
+      {
+         return false;
+      }
+      return canBind(address, server.getRmiPort().intValue() + offset);
+   }
+
+   private static boolean canBind(InetAddress address, int port)
+   {
+      if (port > 0xFFFF)
+      {
+         return false;
+      }
+      try
+      {
+         ServerSocket socket = new ServerSocket();
+         try
+         {
+            socket.bind(new InetSocketAddress(address, port));
+            return true;
+         }
+         finally
+         {
+            socket.close();
+         }
+      }
+      catch (IOException e)
+      {
+         return false;
+      }
+   }
+
+   /**
+    * An offset held by a server, and the lock file keeping other JVMs off it.
+    */
+   private class Reservation
+   {
+      final Server server;
+
+      private FileChannel channel;
+
+      Reservation(Server server)
+      {
+         this.server = server;
+      }
+
+      /**
+       * Take the offset's lock file, unless another JVM holds it.
+       */
+      boolean lock(int offset) throws IOException
+      {
+         File file = new File(lockDir, "jboss-server-manager-ports-" + offset + ".lock");
+         channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+         FileLock lock;
+         try
+         {
+            lock = channel.tryLock();
+         }
+         catch (OverlappingFileLockException e)
+         {
+            // another allocator of this JVM holds it
+            lock = null;
+         }
+         if (lock == null)
+         {
+            unlock();
+            return false;
+         }
+         return true;
+      }
+
+      void unlock()
+      {
+         if (channel != null)
+         {
+            try
+            {
+               channel.close();
+            }
+            catch (IOException e)
+            {
+               // ignore
+            }
+            channel = null;
+         }
+      }
+   }
+}
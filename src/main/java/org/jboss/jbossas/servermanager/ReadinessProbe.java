@@ -0,0 +1,45 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.jbossas.servermanager;
+
+import java.io.IOException;
+
+/**
+ * Decides whether a server has finished starting.
+ * 
+ * Implementations must bound the time a single check may take, so that
+ * a half-open port or wedged server can never block a start forever.
+ *
+ * @see Server#setReadinessProbe(ReadinessProbe)
+ * @version $Revision: $
+ */
+public interface ReadinessProbe
+{
+   /**
+    * Check once whether the server is ready.
+    *
+    * @param server the server being started
+    * @return whether the server is ready to be used
+    * @throws IOException for any error which should abort the start
+    */
+   boolean isReady(Server server) throws IOException;
+}
@@ -0,0 +1,347 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.jbossas.servermanager;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Probes the readiness of all starting servers from a single thread.
+ * 
+ * Each watched server is probed with a non-blocking TCP connect and,
+ * for HTTP, a minimal HEAD exchange, all driven by one Selector.  A
+ * failed attempt is retried after a {@link Backoff} delay.  The future
+ * of a server completes as soon as its socket answers, and watching
+ * stops when the future is cancelled.
+ * 
+ * Only the stock {@link HttpReadinessProbe} and {@link TcpReadinessProbe}
+ * can be driven this way; servers with other probes are not watched.
+ *
+ * @version $Revision: $
+ */
+public class ReadinessService implements Runnable
+{
+   /** the longest (in ms) the selector sleeps, bounds how late a cancellation is seen **/
+   private static final long MAX_SELECT = 500;
+
+   /** the largest response head read, only the status line matters **/
+   private static final int RESPONSE_BUFFER = 512;
+
+   /** watches added since the last turn of the loop **/
+   private final Queue<Watch> added = new ConcurrentLinkedQueue<Watch>();
+
+   /** all watches, only touched by the selector thread **/
+   private final List<Watch> watches = new ArrayList<Watch>();
+
+   private Selector selector;
+
+   /**
+    * Start probing a server with its readiness probe.
+    *
+    * @param server the server
+    * @return completed when the server answers, or null if its probe cannot be driven by a selector;
+    *    cancel it to stop watching
+    * @throws IOException if the selector cannot be opened
+    */
+   public CompletableFuture<Void> watch(Server server) throws IOException
+   {
+      ReadinessProbe probe = server.getReadinessProbe();
+      Watch watch;
+      if (probe.getClass() == HttpReadinessProbe.class)
+      {
+         HttpReadinessProbe http = (HttpReadinessProbe) probe;
+         URL url = server.getHttpUrl();
+         String request = "HEAD / HTTP/1.0\r\nHost: " + url.getAuthority() + "\r\nConnection: close\r\n\r\n";
+         watch = new Watch(server, new InetSocketAddress(server.getHost(), server.getAssignedHttpPort()),
+               request.getBytes(StandardCharsets.US_ASCII), http.getConnectTimeout(), http.getReadTimeout());
+      }
+      else if (probe.getClass() == TcpReadinessProbe.class)
+      {
+         TcpReadinessProbe tcp = (TcpReadinessProbe) probe;
+         watch = new Watch(server, new InetSocketAddress(server.getHost(), tcp.getPort(server)), null,
+               tcp.getConnectTimeout(), 0);
+      }
+      else
+      {
+         return null;
+      }
+
+      added.add(watch);
+      selector().wakeup();
+      return watch.future;
+   }
+
+   private synchronized Selector selector() throws IOException
+   {
+      if (selector == null)
+      {
+         selector = Selector.open();
+         ServerThreads.start("ServerManager-readiness", this);
+      }
+      return selector;
+   }
+
+   public void run()
+   {
+      while (true)
+      {
+         try
+         {
+            long wait = turn();
+            selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+            for (Iterator<SelectionKey> iter = selector.selectedKeys().iterator(); iter.hasNext();)
+            {
+               SelectionKey key = iter.next();
+               iter.remove();
+               ((Watch) key.attachment()).ready(key);
+            }
+         }
+         catch (IOException e)
+         {
+            System.err.println("Readiness service failed to select: " + e);
+         }
+         catch (RuntimeException e)
+         {
+            System.err.println("Readiness service failed: " + e);
+         }
+      }
+   }
+
+   /**
+    * Take on new watches, drop finished ones, time out attempts and
+    * start the attempts that are due.
+    *
+    * @return the time (in ns) until something is due
+    */
+   private long turn()
+   {
+      Watch watch;
+      while ((watch = added.poll()) != null)
+      {
+         watches.add(watch);
+      }
+
+      long now = System.nanoTime();
+      long wait = TimeUnit.MILLISECONDS.toNanos(MAX_SELECT);
+      for (Iterator<Watch> iter = watches.iterator(); iter.hasNext();)
+      {
+         watch = iter.next();
+         if (watch.future.isDone())
+         {
+            watch.close();
+            iter.remove();
+            continue;
+         }
+         if (watch.channel != null && now - watch.due >= 0)
+         {
+            watch.retry();
+         }
+         if (watch.channel == null && now - watch.due >= 0)
+         {
+            watch.attempt();
+         }
+         wait = Math.min(wait, Math.max(0, watch.due - now));
+      }
+      return wait;
+   }
+
+   /**
+    * The probing of one server.
+    */
+   private final class Watch
+   {
+      final Server server;
+
+      final InetSocketAddress address;
+
+      /** the HTTP request, null to only connect **/
+      final byte[] request;
+
+      final long connectTimeout;
+
+      final long readTimeout;
+
+      final Backoff backoff;
+
+      final CompletableFuture<Void> future = new CompletableFuture<Void>();
+
+      /** the channel of the current attempt, null between attempts **/
+      SocketChannel channel;
+
+      ByteBuffer buffer;
+
+      /** when (System.nanoTime) the next attempt starts, or the current one times out **/
+      long due = System.nanoTime();
+
+      Watch(Server server, InetSocketAddress address, byte[] request, int connectTimeout, int readTimeout)
+      {
+         this.server = server;
+         this.address = address;
+         this.request = request;
+         this.connectTimeout = TimeUnit.MILLISECONDS.toNanos(connectTimeout);
+         this.readTimeout = TimeUnit.MILLISECONDS.toNanos(readTimeout);
+         this.backoff = new Backoff(server.getExpectedStartTime());
+      }
+
+      void attempt()
+      {
+         try
+         {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            due = System.nanoTime() + connectTimeout;
+            if (channel.connect(address))
+            {
+               connected();
+            }
+            else
+            {
+               channel.register(selector, SelectionKey.OP_CONNECT, this);
+            }
+         }
+         catch (IOException e)
+         {
+            retry();
+         }
+      }
+
+      void ready(SelectionKey key)
+      {
+         try
+         {
+            if (key.isConnectable())
+            {
+               channel.finishConnect();
+               connected();
+            }
+            else if (key.isWritable())
+            {
+               channel.write(buffer);
+               if (!buffer.hasRemaining())
+               {
+                  buffer = ByteBuffer.allocate(RESPONSE_BUFFER);
+                  key.interestOps(SelectionKey.OP_READ);
+               }
+            }
+            else if (key.isReadable())
+            {
+               read();
+            }
+         }
+         catch (IOException e)
+         {
+            retry();
+         }
+      }
+
+      private void connected() throws IOException
+      {
+         if (request == null)
+         {
+            close();
+            future.complete(null);
+            return;
+         }
+         due = System.nanoTime() + readTimeout;
+         buffer = ByteBuffer.wrap(request);
+         channel.register(selector, SelectionKey.OP_WRITE, this);
+      }
+
+      /**
+       * Read the status line, "HTTP/1.1 200 OK", and judge it the way
+       * HttpReadinessProbe does.
+       */
+      private void read() throws IOException
+      {
+         int read = channel.read(buffer);
+         String head = new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII);
+         int end = head.indexOf("\r\n");
+         if (end < 0)
+         {
+            if (read < 0 || !buffer.hasRemaining())
+            {
+               retry();
+            }
+            return;
+         }
+
+         String[] status = head.substring(0, end).split(" ");
+         int code = -1;
+         try
+         {
+            code = status.length > 1 ? Integer.parseInt(status[1]) : -1;
+         }
+         catch (NumberFormatException e)
+         {
+            // not HTTP
+         }
+         if (code > 0 && code < 400)
+         {
+            close();
+            future.complete(null);
+         }
+         else
+         {
+            retry();
+         }
+      }
+
+      /**
+       * Give up on the current attempt and schedule the next.
+       */
+      void retry()
+      {
+         close();
+         due = System.nanoTime() + backoff.nextDelay(Long.MAX_VALUE);
+      }
+
+      void close()
+      {
+         if (channel != null)
+         {
+            try
+            {
+               channel.close();
+            }
+            catch (IOException e)
+            {
+               // ignore
+            }
+            channel = null;
+            buffer = null;
+         }
+      }
+   }
+}
@@ -22,17 +22,41 @@
 package org.jboss.jbossas.servermanager;
 
 import java.io.IOException;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
-
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
 import javax.management.InstanceNotFoundException;
+import javax.management.MBeanAttributeInfo;
 import javax.management.MalformedObjectNameException;
 import javax.management.MBeanException;
 import javax.management.MBeanServerConnection;
@@ -42,7 +66,6 @@ import javax.management.ReflectionException;
 import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
-import javax.naming.NameNotFoundException;
 
 import org.jnp.interfaces.NamingContext;
 
@@ -88,8 +111,8 @@ public class Server
    /** the arguments to pass to jboss **/
    private List<Argument> arguments = new ArrayList<Argument>();
 
-   /** the server's process, if running **/
-   private Process process;
+   /** the server's process and whether it is still alive **/
+   private final AtomicReference<Liveness> liveness = new AtomicReference<Liveness>(Liveness.NONE);
 
    /** the arguments for the jvm **/
    private List<Argument> jvmArguments = new ArrayList<Argument>();
@@ -103,6 +126,21 @@ public class Server
    /** where to find the rmi port **/
    private Integer rmiPort = new Integer(1099);
 
+   /** added to the configured ports, a multiple of PortAllocator.BLOCK_SIZE **/
+   private volatile int portOffset = 0;
+
+   /** whether the manager picks a free port offset on start **/
+   private boolean allocatePorts = false;
+
+   /** the ports, besides HTTP and RMI, that the stock "default" and "all" configurations bind **/
+   public final static String STOCK_CONFIG_PORTS = "1098,3873,4444,4445,4446,4712,4713,4714";
+
+   /** the ports of the stock configurations' web tier, bound only with a web server **/
+   public final static String STOCK_CONFIG_WEB_PORTS = "8009,8083";
+
+   /** the other ports checked before a start, null for those of the stock configuration **/
+   private String otherPorts;
+
    /** the name or IP address to bind to **/
    private String host = "localhost";
 
@@ -125,7 +163,16 @@ public class Server
    public final static String DEPLOYER_NAME = "jboss.system:service=MainDeployer";
 
    /** the MBean Server Connection */
-   private MBeanServerConnection serverConnection;
+   private final ServerConnectionHolder serverConnection = new ServerConnectionHolder(this);
+
+   /** default time (in ms) a working server connection is trusted without a check **/
+   public final static long DEFAULT_CONNECTION_VALIDATION_INTERVAL = 5000;
+
+   /** default number of operations of a batch in flight at once **/
+   public final static int DEFAULT_BATCH_PARALLELISM = 8;
+
+   /** time (in ms) a working server connection is trusted without a check **/
+   private volatile long connectionValidationInterval = DEFAULT_CONNECTION_VALIDATION_INTERVAL;
 
    /** the URL to use for connection */
    private String serverUrl = null;
@@ -142,6 +189,63 @@ public class Server
    /** Property to set the boot log Threshold **/
    public final static String BOOT_LOG_PROP = "jboss.boot.server.log.level";
 
+   /** The banner logged once the AS has booted, eg "JBoss (Microcontainer) [6.0.0] Started in 25s:71ms" **/
+   public final static String DEFAULT_STARTED_PATTERN = "\\] Started in \\d+";
+
+   /** the output line pattern which signals the server has started **/
+   private Pattern startedPattern = Pattern.compile(DEFAULT_STARTED_PATTERN);
+
+   /** released when a line matching startedPattern is read **/
+   private volatile CountDownLatch startedSignal = new CountDownLatch(1);
+
+   /** released when the server is found ready, which ends the start wait **/
+   private volatile CountDownLatch readySignal = new CountDownLatch(1);
+
+   /** whether the started line alone makes the server ready in this run **/
+   private volatile boolean startedLineReady = true;
+
+   /** decides when the server has started, null for the default **/
+   private ReadinessProbe readinessProbe;
+
+   /** the readiness modes **/
+   public final static String READINESS_HTTP = "http";
+
+   public final static String READINESS_TCP = "tcp";
+
+   public final static String READINESS_LOG = "log";
+
+   public final static String READINESS_JMX = "jmx";
+
+   /** how to decide when the server has started, null for the manager's default **/
+   private String readiness;
+
+   /** default size (in bytes) at which output.log and error.log are rolled **/
+   public final static long DEFAULT_LOG_MAX_SIZE = 100L * 1024 * 1024;
+
+   /** default number of compressed log generations to keep **/
+   public final static int DEFAULT_LOG_GENERATIONS = 5;
+
+   /** the size (in bytes) at which the logs are rolled, 0 for no cap **/
+   private long logMaxSize = DEFAULT_LOG_MAX_SIZE;
+
+   /** how many compressed log generations to keep **/
+   private int logGenerations = DEFAULT_LOG_GENERATIONS;
+
+   /** default size (in bytes) of the buffer holding the latest output lines **/
+   public final static int DEFAULT_OUTPUT_TAIL_SIZE = 64 * 1024;
+
+   /** the size (in bytes) of the buffer holding the latest output lines **/
+   private int outputTailSize = DEFAULT_OUTPUT_TAIL_SIZE;
+
+   /** the latest output lines, null until the server is first started **/
+   private volatile OutputRingBuffer outputTail;
+
+   /** how long (in ns) the last successful start took, 0 if unknown **/
+   private volatile long expectedStartTime;
+
+   /** how long (in ns) the last clean shutdown took, 0 if unknown **/
+   private volatile long expectedStopTime;
+
    /**
     * Get the name.
     *
@@ -342,13 +446,69 @@ public class Server
       return "-D" + SVR_LOG_PROP + "=" + level + " " + "-D" + BOOT_LOG_PROP + "=" + level;
    }
 
+   /**
+    * The lifecycle states of the server process.
+    */
+   public enum State
+   {
+      /** no process, the server was never started or has been stopped **/
+      STOPPED,
+      /** the process is alive **/
+      RUNNING,
+      /** the process has ended without being stopped **/
+      EXITED
+   }
+
+   /**
+    * A process and its state, replaced as a whole so that a late exit
+    * notification for an old process cannot affect its successor.
+    */
+   private static final class Liveness
+   {
+      static final Liveness NONE = new Liveness(null, State.STOPPED);
+
+      final Process process;
+
+      final State state;
+
+      Liveness(Process process, State state)
+      {
+         this.process = process;
+         this.state = state;
+      }
+   }
+
    /**
     * The running process of this server.
     * @param process
     */
-   public void setProcess(Process process)
+   public void setProcess(final Process process)
+   {
+      if (process == null)
+      {
+         liveness.set(Liveness.NONE);
+         return;
+      }
+
+      final Liveness running = new Liveness(process, State.RUNNING);
+      liveness.set(running);
+      process.onExit().thenRun(new Runnable()
+      {
+         public void run()
+         {
+            liveness.compareAndSet(running, new Liveness(process, State.EXITED));
+         }
+      });
+   }
+
+   /**
+    * Get the state of the server process.
+    *
+    * @return the state
+    */
+   public State getState()
    {
-      this.process = process;
+      return liveness.get().state;
    }
 
    /**
@@ -358,23 +518,7 @@ public class Server
     */
    public boolean isRunning()
    {
-      if (isStopped())
-      {
-         return false;
-      }
-      else
-      {
-         try
-         {
-            //exitValue() only returns if process has ended.
-            process.exitValue();
-            return false;
-         }
-         catch (IllegalThreadStateException e)
-         {
-            return true;
-         }
-      }
+      return getState() == State.RUNNING;
    }
 
    /**
@@ -384,7 +528,7 @@ public class Server
     */
    public boolean isStopped()
    {
-      return process == null;
+      return getState() == State.STOPPED;
    }
 
    /**
@@ -394,7 +538,7 @@ public class Server
     */
    public Process getProcess()
    {
-      return process;
+      return liveness.get().process;
    }
 
    /**
@@ -405,7 +549,7 @@ public class Server
     */
    public URL getHttpUrl() throws MalformedURLException
    {
-      return new URL("http://" + getHostForURL() + ":" + httpPort);
+      return new URL("http://" + getHostForURL() + ":" + getAssignedHttpPort());
    }
 
    /**
@@ -415,7 +559,7 @@ public class Server
     */
    public String getRmiUrl()
    {
-      return "jnp://" + getHostForURL() + ":" + rmiPort;
+      return "jnp://" + getHostForURL() + ":" + getAssignedRmiPort();
    }
 
    /**
@@ -522,6 +666,153 @@ public class Server
    {
       return rmiPort;
    }
+
+   /**
+    * The port the HTTP service actually listens on: the configured
+    * http port moved by the port offset.
+    *
+    * @return the assigned http port
+    */
+   public int getAssignedHttpPort()
+   {
+      return httpPort.intValue() + portOffset;
+   }
+
+   /**
+    * The port the RMI service actually listens on: the configured
+    * rmi port moved by the port offset.
+    *
+    * @return the assigned rmi port
+    */
+   public int getAssignedRmiPort()
+   {
+      return rmiPort.intValue() + portOffset;
+   }
+
+   /**
+    * Get the ports, besides HTTP and RMI, the server binds, which must be
+    * free before it starts.  Unless set, these are the ports of the stock
+    * configuration for the "default" and "all" configurations, without
+    * the web tier's unless the server has a web server, and none for any
+    * other configuration.
+    *
+    * @return the ports, comma separated, before the port offset
+    */
+   public String getOtherPorts()
+   {
+      if (otherPorts != null)
+      {
+         return otherPorts;
+      }
+      String config = getConfig();
+      if (!"default".equals(config) && !"all".equals(config))
+      {
+         return "";
+      }
+      return hasWebServer ? STOCK_CONFIG_PORTS + "," + STOCK_CONFIG_WEB_PORTS : STOCK_CONFIG_PORTS;
+   }
+
+   /**
+    * Set the ports, besides HTTP and RMI, the server binds, which must be
+    * free before it starts.  Set to empty to check HTTP and RMI alone.
+    *
+    * @param otherPorts the ports, comma separated, before the port offset,
+    *    or null for those of the stock configuration
+    */
+   public void setOtherPorts(String otherPorts)
+   {
+      if (otherPorts != null)
+      {
+         parsePorts(otherPorts);
+      }
+      this.otherPorts = otherPorts;
+   }
+
+   /**
+    * The other ports the server binds, moved by the port offset.
+    *
+    * @return the assigned other ports
+    * @see #getOtherPorts()
+    */
+   public List<Integer> getAssignedOtherPorts()
+   {
+      List<Integer> ports = parsePorts(getOtherPorts());
+      for (int i = 0; i < ports.size(); i++)
+      {
+         ports.set(i, Integer.valueOf(ports.get(i).intValue() + portOffset));
+      }
+      return ports;
+   }
+
+   private static List<Integer> parsePorts(String ports)
+   {
+      List<Integer> parsed = new ArrayList<Integer>();
+      StringTokenizer tokens = new StringTokenizer(ports, ", ");
+      while (tokens.hasMoreTokens())
+      {
+         String token = tokens.nextToken();
+         try
+         {
+            int port = Integer.parseInt(token);
+            if (port < 1 || port > 65535)
+            {
+               throw new IllegalArgumentException("Not a port: " + token);
+            }
+            parsed.add(Integer.valueOf(port));
+         }
+         catch (NumberFormatException e)
+         {
+            throw new IllegalArgumentException("Not a port: " + token);
+         }
+      }
+      return parsed;
+   }
+
+   /**
+    * Get the port offset.
+    *
+    * @return the offset added to the configured ports
+    */
+   public int getPortOffset()
+   {
+      return portOffset;
+   }
+
+   /**
+    * Set the port offset.  The server is started with the matching
+    * service binding set, ports-01 for 100, ports-02 for 200, etc.
+    *
+    * @param portOffset a multiple of {@link PortAllocator#BLOCK_SIZE}
+    */
+   public void setPortOffset(int portOffset)
+   {
+      if (portOffset < 0 || portOffset % PortAllocator.BLOCK_SIZE != 0)
+      {
+         throw new IllegalArgumentException("The port offset must be a non-negative multiple of "
+               + PortAllocator.BLOCK_SIZE + ": " + portOffset);
+      }
+      this.portOffset = portOffset;
+   }
+
+   /**
+    * Does the manager pick a free port offset when the server starts?
+    *
+    * @return whether ports are allocated
+    */
+   public boolean isAllocatePorts()
+   {
+      return allocatePorts;
+   }
+
+   /**
+    * Set whether the manager picks a free port offset when the server starts.
+    *
+    * @param allocatePorts whether ports are allocated
+    */
+   public void setAllocatePorts(boolean allocatePorts)
+   {
+      this.allocatePorts = allocatePorts;
+   }
    /**
     * Where should the server's std err log go?
     *
@@ -542,6 +833,46 @@ public class Server
       return new File(getLogDir(), "output.log");
    }
 
+   /**
+    * Where should the index of the std err log go?
+    *
+    * @return the error log index file
+    */
+   public File getErrorLogIndex()
+   {
+      return new File(getLogDir(), "error.log.idx");
+   }
+
+   /**
+    * Where should the index of the std out log go?
+    *
+    * @return the output log index file
+    */
+   public File getOutputLogIndex()
+   {
+      return new File(getLogDir(), "output.log.idx");
+   }
+
+   /**
+    * Query the std out log by time and level without scanning all of it.
+    *
+    * @return a query over the output log
+    */
+   public LogQuery getLogQuery()
+   {
+      return new LogQuery(getOutputLog(), getOutputLogIndex());
+   }
+
+   /**
+    * Query the std err log by time and level without scanning all of it.
+    *
+    * @return a query over the error log
+    */
+   public LogQuery getErrorLogQuery()
+   {
+      return new LogQuery(getErrorLog(), getErrorLogIndex());
+   }
+
    /**
     * Where should the servers's trace dump go?
     *
@@ -572,6 +903,48 @@ public class Server
       return new File(manager.getJBossHome(), "server/" + getConfig());
    }
 
+   /**
+    * The size (in bytes) at which output.log and error.log are closed,
+    * compressed and started afresh.
+    *
+    * @return the maximum log size, 0 for no cap
+    */
+   public long getLogMaxSize()
+   {
+      return logMaxSize;
+   }
+
+   /**
+    * Set the size (in bytes) at which the logs are rolled.
+    *
+    * @param logMaxSize the maximum log size, 0 for no cap
+    */
+   public void setLogMaxSize(long logMaxSize)
+   {
+      this.logMaxSize = logMaxSize;
+   }
+
+   /**
+    * How many compressed generations (output.log.1.gz, ...) of each
+    * log are kept. The log of the previous start is the newest generation.
+    *
+    * @return the number of generations
+    */
+   public int getLogGenerations()
+   {
+      return logGenerations;
+   }
+
+   /**
+    * Set how many compressed generations of each log are kept.
+    *
+    * @param logGenerations the number of generations, 0 to keep none
+    */
+   public void setLogGenerations(int logGenerations)
+   {
+      this.logGenerations = logGenerations;
+   }
+
    /**
     * Set the output log's writer
     *
@@ -671,37 +1044,48 @@ public class Server
    }
    
    /**
-    * Get server connection.
+    * Get server connection.  A connection that has not been known to
+    * work for the validation interval is checked first, and looked up
+    * again if the server or the network dropped it.
     *
     * @return the serverConnection
     * @throws NamingException
     */
    public MBeanServerConnection getServerConnection() throws NamingException
    {
-      String adapterName = "jmx/rmi/RMIAdaptor";
-
-      if ( serverConnection == null)
-      {
-         Object obj = getNamingContext().lookup(adapterName);
-         if ( obj == null )
-         {
-            throw new NameNotFoundException("Object " + adapterName + " not found.");
-         }
-
-         setServerConnection((MBeanServerConnection) obj);
-      }
-
-      return serverConnection;
+      return serverConnection.get();
    }
 
    /**
     * Set server connection.
     *
-    * @param serverConnection
+    * @param serverConnection the connection, or null to look it up on next use
     */
    public void setServerConnection(MBeanServerConnection serverConnection)
    {
-      this.serverConnection = serverConnection;
+      this.serverConnection.set(serverConnection);
+   }
+
+   /**
+    * How long (in ms) a working server connection is trusted before it
+    * is checked again.
+    *
+    * @return the validation interval
+    */
+   public long getConnectionValidationInterval()
+   {
+      return connectionValidationInterval;
+   }
+
+   /**
+    * Set how long (in ms) a working server connection is trusted before
+    * it is checked again, 0 to check it on every use.
+    *
+    * @param connectionValidationInterval the validation interval
+    */
+   public void setConnectionValidationInterval(long connectionValidationInterval)
+   {
+      this.connectionValidationInterval = connectionValidationInterval;
    }
 
    /**
@@ -811,6 +1195,276 @@ public class Server
       this.initialContextFactoryClassName = initialContextFactoryClassName;
    }
 
+   /**
+    * Get the probe used to decide whether the server has started.
+    * Unless one has been set, the probe is chosen by the readiness mode
+    * of the server or, failing that, of the manager.  Without either it
+    * is an HTTP probe if the server has a web server, or else a TCP
+    * probe of the RMI port.
+    *
+    * @return the readiness probe
+    */
+   public ReadinessProbe getReadinessProbe()
+   {
+      if (readinessProbe != null)
+      {
+         return readinessProbe;
+      }
+      String mode = readiness;
+      if (mode == null && manager != null)
+      {
+         mode = manager.getDefaultReadiness();
+      }
+      if (READINESS_JMX.equals(mode))
+      {
+         return new JmxReadinessProbe();
+      }
+      if (READINESS_LOG.equals(mode))
+      {
+         return new LogPatternReadinessProbe();
+      }
+      if (READINESS_TCP.equals(mode) || !hasWebServer)
+      {
+         return new TcpReadinessProbe();
+      }
+      return new HttpReadinessProbe();
+   }
+
+   /**
+    * Set the probe used to decide whether the server has started.
+    *
+    * @param readinessProbe the probe, or null for the default
+    */
+   public void setReadinessProbe(ReadinessProbe readinessProbe)
+   {
+      this.readinessProbe = readinessProbe;
+   }
+
+   /**
+    * Get the readiness mode.
+    *
+    * @return the readiness mode, or null for the manager's default
+    */
+   public String getReadiness()
+   {
+      return readiness;
+   }
+
+   /**
+    * Choose how to decide whether the server has started: "http" for a
+    * HEAD request, "tcp" to connect to the RMI port, "log" for the started
+    * line, or "jmx" for the Started attribute of jboss.system:type=Server,
+    * which only turns true once all deployments are done.
+    *
+    * @param readiness the readiness mode, or null for the manager's default
+    */
+   public void setReadiness(String readiness)
+   {
+      if (readiness != null && !READINESS_HTTP.equals(readiness) && !READINESS_TCP.equals(readiness)
+            && !READINESS_LOG.equals(readiness) && !READINESS_JMX.equals(readiness))
+      {
+         throw new IllegalArgumentException("Unknown readiness mode \"" + readiness + "\", expected one of "
+               + READINESS_HTTP + ", " + READINESS_TCP + ", " + READINESS_LOG + ", " + READINESS_JMX);
+      }
+      this.readiness = readiness;
+   }
+
+   /**
+    * Get the pattern which, found in a line of the server's output, 
+    * signals that the server has started.
+    *
+    * @return the started pattern, or null if the output is not watched
+    */
+   public String getStartedPattern()
+   {
+      return startedPattern == null ? null : startedPattern.pattern();
+   }
+
+   /**
+    * Set the pattern which, found in a line of the server's output,
+    * signals that the server has started. The line ends the wait for the
+    * start with the default readiness and in the "log" mode; otherwise
+    * only a LogPatternReadinessProbe among the configured probes heeds it.
+    * Set to null or empty to rely on probing the server alone.
+    *
+    * @param startedPattern a java.util.regex pattern
+    */
+   public void setStartedPattern(String startedPattern)
+   {
+      if (startedPattern == null || startedPattern.length() == 0)
+         this.startedPattern = null;
+      else
+         this.startedPattern = Pattern.compile(startedPattern);
+   }
+
+   /**
+    * Forget any started line seen, or readiness found, during a previous run.
+    */
+   void resetStartedSignal()
+   {
+      startedLineReady = isStartedLineReadiness();
+      startedSignal = new CountDownLatch(1);
+      readySignal = new CountDownLatch(1);
+   }
+
+   /**
+    * Whether the started line alone makes the server ready: only when no
+    * probe has been set and the readiness mode is "log" or the default.
+    */
+   private boolean isStartedLineReadiness()
+   {
+      if (readinessProbe != null)
+      {
+         return false;
+      }
+      String mode = readiness;
+      if (mode == null && manager != null)
+      {
+         mode = manager.getDefaultReadiness();
+      }
+      return mode == null || READINESS_LOG.equals(mode);
+   }
+
+   /**
+    * How long (in ns) the last successful start took, used to time polling.
+    *
+    * @return the duration, or 0 if unknown
+    */
+   long getExpectedStartTime()
+   {
+      return expectedStartTime;
+   }
+
+   void setExpectedStartTime(long expectedStartTime)
+   {
+      this.expectedStartTime = expectedStartTime;
+   }
+
+   /**
+    * How long (in ns) the last clean shutdown took, used to time polling.
+    *
+    * @return the duration, or 0 if unknown
+    */
+   long getExpectedStopTime()
+   {
+      return expectedStopTime;
+   }
+
+   void setExpectedStopTime(long expectedStopTime)
+   {
+      this.expectedStopTime = expectedStopTime;
+   }
+
+   /**
+    * The last lines the server wrote to its output and error streams
+    * since it was last started, kept in memory.
+    *
+    * @param lines the most lines to return
+    * @return the lines, oldest first
+    */
+   public List<String> tail(int lines)
+   {
+      OutputRingBuffer tail = outputTail;
+      return tail == null ? Collections.<String>emptyList() : tail.tail(lines);
+   }
+
+   /**
+    * The size (in bytes) of the memory holding the server's latest output lines.
+    *
+    * @return the tail buffer size
+    */
+   public int getOutputTailSize()
+   {
+      return outputTailSize;
+   }
+
+   /**
+    * Set the size (in bytes) of the memory holding the server's latest output lines.
+    * Takes effect on the next start.
+    *
+    * @param outputTailSize the tail buffer size
+    */
+   public void setOutputTailSize(int outputTailSize)
+   {
+      this.outputTailSize = outputTailSize;
+   }
+
+   /**
+    * Forget the output of a previous run.
+    */
+   void resetOutputTail()
+   {
+      OutputRingBuffer tail = outputTail;
+      if (tail != null && tail.capacity() == outputTailSize)
+      {
+         tail.clear();
+      }
+      else
+      {
+         outputTail = new OutputRingBuffer(outputTailSize);
+      }
+   }
+
+   /**
+    * Called for each line the server writes to its output or error stream.
+    *
+    * @param line the line read
+    */
+   void outputLine(String line)
+   {
+      OutputRingBuffer tail = outputTail;
+      if (tail != null)
+      {
+         tail.add(line);
+      }
+
+      Pattern pattern = startedPattern;
+      if (pattern != null && startedSignal.getCount() > 0 && pattern.matcher(line).find())
+      {
+         startedSignal.countDown();
+         if (startedLineReady)
+         {
+            readySignal.countDown();
+         }
+      }
+   }
+
+   /**
+    * Wait for the started line to appear in the server's output.
+    *
+    * @param timeout how long to wait
+    * @param unit the unit of timeout
+    * @return whether the started line has been seen
+    * @throws InterruptedException if interrupted while waiting
+    */
+   boolean awaitStartedLine(long timeout, TimeUnit unit) throws InterruptedException
+   {
+      return startedSignal.await(timeout, unit);
+   }
+
+   /**
+    * Wait for the server to be found ready, by the readiness service or,
+    * if that is all the readiness asks for, by its started line.
+    *
+    * @param timeout how long to wait
+    * @param unit the unit of timeout
+    * @return whether the server has been found ready
+    * @throws InterruptedException if interrupted while waiting
+    */
+   boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException
+   {
+      return readySignal.await(timeout, unit);
+   }
+
+   /**
+    * Release the waiters for readiness, because the server
+    * has been found ready.
+    */
+   void signalReady()
+   {
+      readySignal.countDown();
+   }
+
   /**
     * Get the Log Level
     *
@@ -922,7 +1576,233 @@ public class Server
     */
    public Object invoke(ObjectName name, String method, Object[] args, String[] sig) throws Exception
    {
-      return invoke(this.getServerConnection(), name, method, args, sig);
+      MBeanServerConnection connection = this.getServerConnection();
+      try
+      {
+         return invoke(connection, name, method, args, sig);
+      }
+      catch (IOException e)
+      {
+         // look the connection up again on next use
+         serverConnection.invalidate(connection);
+         throw e;
+      }
+   }
+
+   /**
+    * Invoke independent MBean operations concurrently, at most
+    * {@link #DEFAULT_BATCH_PARALLELISM} at a time.
+    *
+    * @param invocations the operations
+    * @return the outcome of each operation, in the same order
+    * @throws InterruptedException if interrupted while waiting for the batch
+    */
+   public List<InvocationResult> invokeBatch(List<Invocation> invocations) throws InterruptedException
+   {
+      return invokeBatch(invocations, DEFAULT_BATCH_PARALLELISM);
+   }
+
+   /**
+    * Invoke independent MBean operations concurrently.  Each operation
+    * is invoked like {@link #invoke(ObjectName, String, Object[], String[])},
+    * so a failure is reported unwrapped from its MBeanException or
+    * ReflectionException, and does not affect the other operations.
+    *
+    * @param invocations the operations
+    * @param maxParallel how many operations may be in flight at once
+    * @return the outcome of each operation, in the same order
+    * @throws InterruptedException if interrupted while waiting for the batch
+    */
+   public List<InvocationResult> invokeBatch(List<Invocation> invocations, int maxParallel) throws InterruptedException
+   {
+      if (maxParallel < 1)
+      {
+         throw new IllegalArgumentException("maxParallel must be at least 1: " + maxParallel);
+      }
+      List<InvocationResult> results = new ArrayList<InvocationResult>(invocations.size());
+      if (invocations.isEmpty())
+      {
+         return results;
+      }
+
+      ExecutorService pool = ServerThreads.newFixedPool("Server-" + name + "-invoke", Math.min(maxParallel, invocations.size()));
+      try
+      {
+         List<Future<Object>> futures = new ArrayList<Future<Object>>(invocations.size());
+         for (final Invocation invocation : invocations)
+         {
+            futures.add(pool.submit(new Callable<Object>()
+            {
+               public Object call() throws Exception
+               {
+                  return invoke(invocation.getName(), invocation.getMethod(), invocation.getArgs(), invocation.getSig());
+               }
+            }));
+         }
+
+         for (int i = 0; i < invocations.size(); i++)
+         {
+            try
+            {
+               results.add(new InvocationResult(invocations.get(i), futures.get(i).get(), null));
+            }
+            catch (ExecutionException e)
+            {
+               results.add(new InvocationResult(invocations.get(i), null, e.getCause()));
+            }
+         }
+         return results;
+      }
+      finally
+      {
+         pool.shutdownNow();
+      }
+   }
+
+   /**
+    * Read the attributes of all MBeans matching a pattern: one query,
+    * then the attributes of each MBean in a single call, for up to
+    * {@link #DEFAULT_BATCH_PARALLELISM} MBeans at a time.  MBeans that
+    * go away or fail to answer are left out.
+    *
+    * @param pattern the MBeans to read
+    * @param attributes the attributes to read, or null for all readable attributes
+    * @return the attributes of each MBean
+    * @throws NamingException if the server connection cannot be looked up
+    * @throws IOException if the server cannot be reached
+    * @throws InterruptedException if interrupted while waiting for the reads
+    */
+   public Map<ObjectName, AttributeList> snapshot(ObjectName pattern, String[] attributes)
+      throws NamingException, IOException, InterruptedException
+   {
+      final Map<ObjectName, AttributeList> snapshot = new TreeMap<ObjectName, AttributeList>();
+      snapshot(pattern, attributes, new SnapshotSink()
+      {
+         public void add(ObjectName name, AttributeList values)
+         {
+            snapshot.put(name, values);
+         }
+      });
+      return snapshot;
+   }
+
+   /**
+    * Read the attributes of all MBeans matching a pattern, like 
+    * {@link #snapshot(ObjectName, String[])}, writing each MBean to a
+    * file as soon as it is read.  Each attribute is one line: the MBean
+    * name, the attribute name and the value, separated by tabs.
+    *
+    * @param pattern the MBeans to read
+    * @param attributes the attributes to read, or null for all readable attributes
+    * @param file where to write the snapshot
+    * @return the number of MBeans written
+    * @throws NamingException if the server connection cannot be looked up
+    * @throws IOException if the server cannot be reached or the file written
+    * @throws InterruptedException if interrupted while waiting for the reads
+    */
+   public int snapshot(ObjectName pattern, String[] attributes, File file)
+      throws NamingException, IOException, InterruptedException
+   {
+      final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+      try
+      {
+         return snapshot(pattern, attributes, new SnapshotSink()
+         {
+            public void add(ObjectName name, AttributeList values) throws IOException
+            {
+               String prefix = name.getCanonicalName() + '\t';
+               for (Attribute attribute : values.asList())
+               {
+                  Object value = attribute.getValue();
+                  String text = value instanceof Object[] ? Arrays.deepToString((Object[]) value) : String.valueOf(value);
+                  out.write(prefix + attribute.getName() + '\t' + text.replace("\\", "\\\\").replace("\n", "\\n").replace("\t", "\\t") + '\n');
+               }
+            }
+         });
+      }
+      finally
+      {
+         out.close();
+      }
+   }
+
+   /**
+    * Receives the attributes of each MBean of a snapshot, in the calling thread.
+    */
+   private interface SnapshotSink
+   {
+      void add(ObjectName name, AttributeList values) throws IOException;
+   }
+
+   private int snapshot(ObjectName pattern, final String[] attributes, SnapshotSink sink)
+      throws NamingException, IOException, InterruptedException
+   {
+      final MBeanServerConnection connection = getServerConnection();
+      Set<ObjectName> names = connection.queryNames(pattern, null);
+      if (names.isEmpty())
+      {
+         return 0;
+      }
+
+      ExecutorService pool = ServerThreads.newFixedPool("Server-" + name + "-snapshot", Math.min(DEFAULT_BATCH_PARALLELISM, names.size()));
+      try
+      {
+         CompletionService<AttributeList> reads = new ExecutorCompletionService<AttributeList>(pool);
+         Map<Future<AttributeList>, ObjectName> pending = new HashMap<Future<AttributeList>, ObjectName>();
+         for (final ObjectName mbean : names)
+         {
+            pending.put(reads.submit(new Callable<AttributeList>()
+            {
+               public AttributeList call() throws Exception
+               {
+                  return connection.getAttributes(mbean, attributes != null ? attributes : readableAttributes(connection, mbean));
+               }
+            }), mbean);
+         }
+
+         int count = 0;
+         while (!pending.isEmpty())
+         {
+            Future<AttributeList> read = reads.take();
+            ObjectName mbean = pending.remove(read);
+            try
+            {
+               sink.add(mbean, read.get());
+               count++;
+            }
+            catch (ExecutionException e)
+            {
+               if (e.getCause() instanceof IOException)
+               {
+                  serverConnection.invalidate(connection);
+                  throw (IOException) e.getCause();
+               }
+               if (!(e.getCause() instanceof InstanceNotFoundException))
+               {
+                  log.warn("Leaving " + mbean + " out of the snapshot", e.getCause());
+               }
+            }
+         }
+         return count;
+      }
+      finally
+      {
+         pool.shutdownNow();
+      }
+   }
+
+   private static String[] readableAttributes(MBeanServerConnection connection, ObjectName mbean) throws Exception
+   {
+      MBeanAttributeInfo[] infos = connection.getMBeanInfo(mbean).getAttributes();
+      List<String> readable = new ArrayList<String>(infos.length);
+      for (MBeanAttributeInfo info : infos)
+      {
+         if (info.isReadable())
+         {
+            readable.add(info.getName());
+         }
+      }
+      return readable.toArray(new String[readable.size()]);
    }
 
    public Object invoke(MBeanServerConnection server, ObjectName name, String method, Object[] args, String[] sig)
@@ -0,0 +1,249 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.jbossas.servermanager;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServerConnection;
+import javax.naming.InterruptedNamingException;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+
+/**
+ * Holds a server's MBeanServerConnection (the RMIAdaptor proxy) and
+ * keeps it usable.  A connection that has not been checked or looked
+ * up within the validation interval is checked with a cheap getMBeanCount
+ * call before it is handed out; a connection that fails the check, or a
+ * call through it, is dropped and looked up again, with a fresh naming
+ * context if needed.
+ * 
+ * Concurrent callers share one check or lookup, which runs outside the
+ * lock so a wedged server holds up only the callers waiting for it, and
+ * they can be interrupted; callers within the interval get the held
+ * connection without any remote call.
+ *
+ * @version $Revision: $
+ */
+class ServerConnectionHolder
+{
+   /** the JNDI name of the adaptor **/
+   private static final String ADAPTOR_NAME = "jmx/rmi/RMIAdaptor";
+
+   private final Server server;
+
+   private final Object lock = new Object();
+
+   private volatile MBeanServerConnection connection;
+
+   /** when (System.nanoTime) the connection was last checked or looked up **/
+   private volatile long validated;
+
+   /** the check or lookup in progress, guarded by lock **/
+   private FutureTask<MBeanServerConnection> pending;
+
+   /**
+    * Create a new ServerConnectionHolder.
+    *
+    * @param server the server whose naming context is used for the lookup
+    */
+   ServerConnectionHolder(Server server)
+   {
+      this.server = server;
+   }
+
+   /**
+    * Get a connection that worked within the validation interval, 
+    * looking it up again if it no longer works.
+    *
+    * @return the connection
+    * @throws NamingException if the adaptor cannot be looked up, or the caller is interrupted
+    */
+   MBeanServerConnection get() throws NamingException
+   {
+      final long interval = TimeUnit.MILLISECONDS.toNanos(server.getConnectionValidationInterval());
+      MBeanServerConnection current = connection;
+      if (current != null && System.nanoTime() - validated < interval)
+      {
+         return current;
+      }
+
+      FutureTask<MBeanServerConnection> task;
+      boolean owner = false;
+      synchronized (lock)
+      {
+         current = connection;
+         if (current != null && System.nanoTime() - validated < interval)
+         {
+            return current;
+         }
+         task = pending;
+         if (task == null)
+         {
+            final MBeanServerConnection held = current;
+            task = new FutureTask<MBeanServerConnection>(new Callable<MBeanServerConnection>()
+            {
+               public MBeanServerConnection call() throws NamingException
+               {
+                  return refresh(held);
+               }
+            });
+            pending = task;
+            owner = true;
+         }
+      }
+
+      if (owner)
+      {
+         task.run();
+      }
+      try
+      {
+         return task.get();
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new InterruptedNamingException("Interrupted while waiting for " + ADAPTOR_NAME + ".");
+      }
+      catch (ExecutionException e)
+      {
+         Throwable cause = e.getCause();
+         if (cause instanceof NamingException)
+         {
+            throw (NamingException) cause;
+         }
+         if (cause instanceof RuntimeException)
+         {
+            throw (RuntimeException) cause;
+         }
+         if (cause instanceof Error)
+         {
+            throw (Error) cause;
+         }
+         NamingException ne = new NamingException("Lookup of " + ADAPTOR_NAME + " failed.");
+         ne.setRootCause(cause);
+         throw ne;
+      }
+   }
+
+   /**
+    * Check the held connection, or look it up again.  Keeps the result
+    * unless the connection was replaced or dropped meanwhile.
+    */
+   private MBeanServerConnection refresh(MBeanServerConnection held) throws NamingException
+   {
+      try
+      {
+         MBeanServerConnection current = held != null && isValid(held) ? held : lookup();
+         synchronized (lock)
+         {
+            if (connection == held)
+            {
+               connection = current;
+               validated = System.nanoTime();
+            }
+         }
+         return current;
+      }
+      finally
+      {
+         synchronized (lock)
+         {
+            pending = null;
+         }
+      }
+   }
+
+   /**
+    * Replace the connection.
+    *
+    * @param connection the connection, or null to look it up on next use
+    */
+   void set(MBeanServerConnection connection)
+   {
+      synchronized (lock)
+      {
+         this.connection = connection;
+         this.validated = System.nanoTime();
+      }
+   }
+
+   /**
+    * Drop the connection, because a call through it failed.
+    *
+    * @param failed the connection the call went through
+    */
+   void invalidate(MBeanServerConnection failed)
+   {
+      synchronized (lock)
+      {
+         if (connection == failed)
+         {
+            connection = null;
+         }
+      }
+   }
+
+   private static boolean isValid(MBeanServerConnection connection)
+   {
+      try
+      {
+         connection.getMBeanCount();
+         return true;
+      }
+      catch (Exception e)
+      {
+         // IOException, or a runtime exception from the proxy
+         return false;
+      }
+   }
+
+   /**
+    * Look the adaptor up, retrying once with a new naming context in
+    * case the old one is bound to a naming service that went away.
+    */
+   private MBeanServerConnection lookup() throws NamingException
+   {
+      try
+      {
+         return lookupOnce();
+      }
+      catch (NamingException e)
+      {
+         server.setNamingContext(null);
+         return lookupOnce();
+      }
+   }
+
+   private MBeanServerConnection lookupOnce() throws NamingException
+   {
+      Object obj = server.getNamingContext().lookup(ADAPTOR_NAME);
+      if ( obj == null )
+      {
+         throw new NameNotFoundException("Object " + ADAPTOR_NAME + " not found.");
+      }
+      return (MBeanServerConnection) obj;
+   }
+}
@@ -25,16 +25,26 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.Writer;
-import java.net.HttpURLConnection;
-import java.net.Socket;
-import java.net.URL;
-import java.net.URLConnection;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 /**
  * Starts, stops, and (eventually) reboots server instances.
@@ -58,6 +68,11 @@ public abstract class ServerController
     */
    private static final String SYS_PROP_XB_UNORDERED = "xb.builder.useUnorderedSequence";
 
+   /**
+    * Name of the system property selecting the service binding set (the port offset)
+    */
+   private static final String SYS_PROP_BINDING_SET = "jboss.service.binding.set";
+
    /**
     * CLI switch denoting a system property will follow
     */
@@ -68,10 +83,22 @@ public abstract class ServerController
     */
    private static final char EQUALS = '=';
 
-   // delay (in ms) to guarantee that a destroyed process cannot respond with true
-   // to ServerController.isServerStarted()
+   // upper bound (in ms) on waiting for a destroyed process to exit and release
+   // its ports, so it cannot respond with true to ServerController.isServerStarted()
    private static final long PROCESS_DESTROY_DELAY = 45 * 1000 ;
 
+   // number of the server's last output lines attached to startup and shutdown failures
+   private static final int FAILURE_TAIL_LINES = 50;
+
+   // time (in ms) allowed to read the remaining output of an exited process
+   private static final long OUTPUT_DRAIN_TIMEOUT = 2000;
+
+   // connect timeout (in ms) when checking whether a destroyed server's ports are released
+   private static final int PORT_RELEASE_PROBE_TIMEOUT = 200;
+
+   // runs the asynchronous starts, stops and restarts
+   private static final ExecutorService ASYNC = ServerThreads.newUnboundedPool("ServerController-async");
+
    private ServerController()
    {
    }
@@ -83,21 +110,29 @@ public abstract class ServerController
     * @param manager
     * @throws IOException
     */
-   public static void startServer(Server server, ServerManager manager) throws IOException
+   public static void startServer(final Server server, final ServerManager manager) throws IOException
    {
       if (server.isRunning())
       {
          throw new IllegalArgumentException("The " + server.getName() + " server is already running.");
       }
 
-      if (isServerStarted(server))
+      if (server.isAllocatePorts())
       {
-         throw new IOException("Found a process already listening on:" + server.getHttpUrl() + " or "+ server.getRmiUrl());
+         manager.getPortAllocator().reserve(server);
+      }
+
+      String conflict = findPortConflict(server);
+      if (conflict != null)
+      {
+         throw new IOException("Found a process already listening on:" + conflict);
       }
 
       // make sure these are initialized
       server.setNamingContext(null);
       server.setServerConnection(null);
+      server.resetStartedSignal();
+      server.resetOutputTail();
 
       String execCmd = getStartCommandLine(server, manager);
 
@@ -106,27 +141,18 @@ public abstract class ServerController
       File binDir = new File(manager.getJBossHome(), "/bin");
       final Process process = Runtime.getRuntime().exec(execCmd, null, binDir);
 
-      new Thread(new ConsoleConsumer(process.getInputStream())).start();
-      new Thread(new ConsoleConsumer(process.getErrorStream())).start();
-
-      final BufferedReader errStream = new BufferedReader(new InputStreamReader(process.getErrorStream()));
-      final BufferedReader inStream = new BufferedReader(new InputStreamReader(process.getInputStream()));
-
       final File outFile = server.getOutputLog();
-      initalizeLog(outFile);
-      final PrintWriter outlog = new PrintWriter(new FileWriter(outFile));
+      initalizeLog(outFile, server, manager);
+      final PrintWriter outlog = new PrintWriter(newLogWriter(outFile, server.getOutputLogIndex(), server, manager));
       server.setOutWriter(outlog);
 
-      Thread outPump = new OutputPumper(inStream, outlog);
-      outPump.start();
-
       final File errorFile = server.getErrorLog();
-      initalizeLog(errorFile);
-      final PrintWriter errorlog = new PrintWriter(new FileWriter(errorFile));
+      initalizeLog(errorFile, server, manager);
+      final PrintWriter errorlog = new PrintWriter(newLogWriter(errorFile, server.getErrorLogIndex(), server, manager));
       server.setErrorWriter(errorlog);
 
-      Thread errorPump = new OutputPumper(errStream, errorlog);
-      errorPump.start();
+      // pump both streams to the logs and the console
+      manager.getOutputMultiplexer().attach(server, process, outlog, errorlog);
 
       /*
        * TODO: -TME This is a real problem.  If maintain reference
@@ -138,6 +164,14 @@ public abstract class ServerController
        * Is this true for our environment? - rcampbell
        */
       server.setProcess(process);
+      manager.publish(server, ServerLifecycleEvent.Type.LAUNCHED, null);
+      process.onExit().thenAccept(new Consumer<Process>()
+      {
+         public void accept(Process exited)
+         {
+            manager.publish(server, ServerLifecycleEvent.Type.EXITED, Integer.valueOf(exited.exitValue()));
+         }
+      });
 
       try
       {
@@ -154,15 +188,20 @@ public abstract class ServerController
    }
 
    /**
-    * Delete & create log files
+    * Roll & create log files
     * @param logFile
+    * @param server
+    * @param manager
     * @throws IOException
     */
-   private static void initalizeLog(final File logFile) throws IOException
+   private static void initalizeLog(final File logFile, final Server server, final ServerManager manager) throws IOException
    {
+      // archive what a previous JVM rolled but left uncompressed
+      manager.getLogRoller().recover(logFile, server.getLogGenerations());
       if (logFile.exists())
       {
-         logFile.delete();
+         // keep the previous run's log as the newest generation
+         manager.getLogRoller().roll(logFile, server.getLogGenerations());
       }
       if (!logFile.getParentFile().exists())
       {
@@ -180,6 +219,23 @@ public abstract class ServerController
       }
    }
 
+   /**
+    * Create the writer for a server log file, capped and rolled as
+    * configured on the server.
+    *
+    * @param logFile the log file
+    * @param indexFile its index
+    * @param server the server
+    * @param manager the manager
+    * @return the writer
+    * @throws IOException if the file cannot be opened
+    */
+   private static Writer newLogWriter(final File logFile, final File indexFile, final Server server, final ServerManager manager) throws IOException
+   {
+      return new AsyncLogWriter(logFile, indexFile, server.getLogMaxSize(), server.getLogGenerations(),
+            manager.getLogRoller(), manager.getLogFlusher());
+   }
+
    /**
     * Create the command line to execute
     *
@@ -194,6 +250,10 @@ public abstract class ServerController
       execCmd = execCmd + server.getJvmArgs() + server.getSysProperties() + server.getLoggingProperty();
       execCmd = execCmd + " " + getEndorsedDirsProperty(manager);
       execCmd = execCmd + " " + getXbUnorderedSequenceProperty();
+      if (server.getPortOffset() != 0)
+      {
+         execCmd = execCmd + " " + getBindingSetProperty(server);
+      }
       execCmd = execCmd + " " + MAIN + " -c " + server.getConfig() + " -b " + server.getHost() + " -g " + server.getPartition();
 
       if (manager.getUdpGroup() != null && ! manager.getUdpGroup().equals(""))
@@ -204,6 +264,53 @@ public abstract class ServerController
       return execCmd;
    }
 
+   /**
+    * Check that nothing listens on the ports the server is about to bind:
+    * its HTTP and RMI ports and its other ports, see Server.getOtherPorts(),
+    * all shifted by its port offset.  On Linux the kernel's socket tables
+    * are read, naming the process in the way; elsewhere only the server's
+    * HTTP and RMI ports are probed.
+    *
+    * @param server the server
+    * @return a description of the conflict, or null if the ports are free
+    * @throws IOException for any error
+    */
+   private static String findPortConflict(Server server) throws IOException
+   {
+      ListeningSockets sockets = ListeningSockets.read();
+      if (sockets == null)
+      {
+         return isServerStarted(server) ? server.getHttpUrl() + " or " + server.getRmiUrl() : null;
+      }
+
+      Set<Integer> ports = new LinkedHashSet<Integer>();
+      if (server.hasWebServer())
+      {
+         ports.add(server.getAssignedHttpPort());
+      }
+      ports.add(server.getAssignedRmiPort());
+      ports.addAll(server.getAssignedOtherPorts());
+
+      InetAddress[] addresses = InetAddress.getAllByName(server.getHost());
+      List<ListeningSockets.Listener> found = new ArrayList<ListeningSockets.Listener>();
+      for (int port : ports)
+      {
+         found.addAll(sockets.find(addresses, port));
+      }
+      if (found.isEmpty())
+      {
+         return null;
+      }
+
+      StringBuilder conflict = new StringBuilder();
+      for (ListeningSockets.Listener listener : found)
+      {
+         String owner = ListeningSockets.describeOwner(listener);
+         conflict.append(' ').append(listener).append(" by ").append(owner != null ? owner : "an unknown process");
+      }
+      return conflict.toString();
+   }
+
    /**
     * Obtains the full endorsed dirs property, (ie. "-Djava.endorsed.dirs=/path/to/place")
     *
@@ -225,6 +332,17 @@ public abstract class ServerController
       return SWITCH_SYSPROP + SYS_PROP_XB_UNORDERED + EQUALS + "true";
    }
 
+   /**
+    * Obtains the service binding set property for the server's port offset,
+    * (ie. "-Djboss.service.binding.set=ports-01")
+    * @return
+    */
+   private static final String getBindingSetProperty(final Server server)
+   {
+      return SWITCH_SYSPROP + SYS_PROP_BINDING_SET + EQUALS
+            + String.format("ports-%02d", server.getPortOffset() / PortAllocator.BLOCK_SIZE);
+   }
+
    /**
     * Get the server shutdown command line.
     *
@@ -244,7 +362,7 @@ public abstract class ServerController
       }
 
       String execCmd = manager.getJavaExecutable() + " -cp " + manager.getStopClasspath() + " ";
-      execCmd = execCmd + SHUTDOWN_CLASS + strAuth +" --shutdown";
+      execCmd = execCmd + SHUTDOWN_CLASS + " -s " + server.getRmiUrl() + strAuth +" --shutdown";
       return execCmd;
    }
 
@@ -279,8 +397,7 @@ public abstract class ServerController
          BufferedReader stdout = new BufferedReader(new InputStreamReader(proc.getInputStream()));
          PrintWriter output = new PrintWriter(log);
 
-         OutputPumper pumper = new OutputPumper(stdout, output);
-         pumper.start();
+         Thread pumper = ServerThreads.start("ServerController-shutdown-output", new OutputPumper(stdout, output));
 
          // Wait 20.5 seconds for shutdown.jar to complete
          pumper.join(20000);
@@ -309,104 +426,116 @@ public abstract class ServerController
     * @param manager
     * @throws IOException
     */
-   private static void waitForServer(Server server, ServerManager manager) throws IOException
+   private static void waitForServer(final Server server, ServerManager manager) throws IOException
    {
+      final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(manager.getStartupTimeout());
+      final Backoff backoff = new Backoff(server.getExpectedStartTime());
 
-      int tries = 0;
-      while (tries++ < manager.getStartupTimeout())
+      // the stock probes are run by the shared readiness service, which
+      // releases the wait below as soon as the server answers
+      CompletableFuture<Void> ready = null;
+      boolean watching = false;
+      try
       {
-         if (!server.isRunning())
+         ready = manager.getReadinessService().watch(server);
+         watching = true;
+      }
+      finally
+      {
+         if (!watching)
          {
-         	// save output and error streams before raising exception (and terminating ant task)
-         	closeAllStreams(server.getProcess()) ;
-         	server.getErrorWriter().close() ;
-         	server.getOutWriter().close() ;
-
-            throw new IOException("Server failed to start; see logs. exit code: " + server.getProcess().exitValue());
+            abortStart(server, manager, "Failed to start probing server \"" + server.getName() + "\".");
          }
-
-         try
+      }
+      if (ready != null)
+      {
+         ready.thenRun(new Runnable()
          {
-            Thread.sleep(1000);
-         }
-         catch (InterruptedException e)
+            public void run()
+            {
+               server.signalReady();
+            }
+         });
+      }
+
+      try
+      {
+         long remaining;
+         while ((remaining = deadline - System.nanoTime()) > 0)
          {
+            if (!server.isRunning())
+            {
+               // save output and error streams before raising exception (and terminating ant task)
+               closeOutput(server, manager, server.getProcess());
+
+               throw new ServerStartupException("Server failed to start; see logs. exit code: " + server.getProcess().exitValue(),
+                     server.tail(FAILURE_TAIL_LINES));
+            }
+
+            // released early as soon as the server answers, or logs its
+            // started line when that is all the readiness asks for
+            if (server.awaitReady(backoff.nextDelay(remaining), TimeUnit.NANOSECONDS)
+                  || (ready == null && isServerStarted(server)))
+            {
+               server.setExpectedStartTime(backoff.elapsed());
+               manager.publish(server, ServerLifecycleEvent.Type.READY, null);
+               return;
+            }
          }
-         if (isServerStarted(server))
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         abortStart(server, manager, "Interrupted while waiting for server \"" + server.getName() + "\" to start.");
+         throw new InterruptedIOException("Interrupted while waiting for the server to start; see logs.");
+      }
+      finally
+      {
+         if (ready != null)
          {
-            return;
+            ready.cancel(false);
          }
       }
 
-      Process process = server.getProcess();
-
-  	  // save output and error streams before raising exception (and terminating ant task)
-  	  closeAllStreams(server.getProcess()) ;
-  	  server.getErrorWriter().close() ;
-  	  server.getOutWriter().close() ;
-
-      System.err.println("Failed to start server \"" + server.getName()
-            + "\" before timeout. Destroying the process.");
-      process.destroy();
+      manager.publish(server, ServerLifecycleEvent.Type.TIMED_OUT, null);
+      abortStart(server, manager, "Failed to start server \"" + server.getName() + "\" before timeout.");
+      throw new ServerStartupException("Server failed to start in time; see logs.", server.tail(FAILURE_TAIL_LINES));
+   }
 
-      throw new IOException("Server failed to start in time; see logs.");
+   /**
+    * Give up on a starting server: save its output and destroy the process.
+    *
+    * @param server the server
+    * @param reason why the start is abandoned
+    */
+   private static void abortStart(Server server, ServerManager manager, String reason)
+   {
+      Process process = server.getProcess();
 
+      System.err.println(reason + " Destroying the process.");
+      try
+      {
+         destroyProcessTree(server, manager, process, TimeUnit.SECONDS.toMillis(manager.getKillGracePeriod()));
+      }
+      finally
+      {
+         // save output and error streams before raising exception (and terminating ant task)
+         closeOutput(server, manager, process);
+      }
    }
 
    /**
-    * Check if the server is fully intialized by trying to
-    * open a connection to tomcat.
+    * Check if the server is fully intialized by asking its
+    * readiness probe, by default by opening a connection to tomcat.
     *
     * @param server the server
     * @return whether it is started
     * @throws IOException for any error
+    * @see Server#getReadinessProbe()
     */
    public static boolean isServerStarted(Server server) throws IOException
    {
-      URL url = server.getHttpUrl();
-      if (server.hasWebServer())
-      {
-         try
-         {
-            URLConnection conn = url.openConnection();
-            if (conn instanceof HttpURLConnection)
-            {
-               HttpURLConnection http = (HttpURLConnection) conn;
-               int responseCode = http.getResponseCode();
-
-               if (responseCode > 0 && responseCode < 400)
-               {
-                  return true;
-               }
-            }
-         }
-         catch (IOException e)
-         {
-            return false;
-         }
-         return false;
-      }
-      else
-      {
-         //see if the rmi port is active
-         Socket socket = null;
-         try
-         {
-            socket = new Socket(server.getHost(), server.getRmiPort().intValue());
-            return true;
-         }
-         catch (IOException e)
-         {
-            return false;
-         }
-         finally
-         {
-            if (socket != null)
-            {
-               socket.close();
-            }
-         }
-      }
+      return server.getReadinessProbe().isReady(server);
    }
 
    /**
@@ -435,6 +564,7 @@ public abstract class ServerController
 	else
       {
       	System.out.println("Shutting down server: " + server.getName());
+         manager.publish(server, ServerLifecycleEvent.Type.STOPPING, null);
       }
 
       /** Catch everything as we want the server killed unconditionally **/
@@ -447,7 +577,15 @@ public abstract class ServerController
          }
          else
          {
-            server.doShutdown();
+            JmxCalls.call("Shutdown of server \"" + server.getName() + "\"", TimeUnit.SECONDS.toMillis(manager.getJmxTimeout()),
+               new Callable<Object>()
+               {
+                  public Object call() throws Exception
+                  {
+                     server.doShutdown();
+                     return null;
+                  }
+               });
          }
       }
       catch (Throwable e)
@@ -460,6 +598,7 @@ public abstract class ServerController
       if (cleanShutdown && !waitOnShutdown(server, manager))
       {
          cleanShutdown = false;
+         manager.publish(server, ServerLifecycleEvent.Type.TIMED_OUT, null);
       }
 
       if (!cleanShutdown)
@@ -470,7 +609,7 @@ public abstract class ServerController
             if (useShutdownJar)
                System.err.println(shutdownJarOutput.toString());
             else
-               writeServerDump(server);
+               writeServerDump(server, manager);
          }
          catch (Throwable e)
          {
@@ -481,20 +620,11 @@ public abstract class ServerController
                  + "\"" + (shutdownException == null ? " before timeout." : ".")
                     + " Destroying the process.");
 
-         // destroy process and print an error messsage
-         process.destroy();
-
-         // although the process has been destroyed, we need to wait for it to shutdown
-         try {
-       	  Thread.sleep(PROCESS_DESTROY_DELAY) ;
-         }
-         catch(InterruptedException e) {
-         }
+         // destroy the process and anything it spawned, and wait for them to go away
+         destroyProcessTree(server, manager, process, TimeUnit.SECONDS.toMillis(manager.getKillGracePeriod()));
       }
 
-      closeAllStreams(process);
-      server.getErrorWriter().close();
-      server.getOutWriter().close();
+      closeOutput(server, manager, process);
 
   	  // this affects the value of Server.isStopped()
       server.setProcess(null);
@@ -504,25 +634,190 @@ public abstract class ServerController
          throw (ServerShutdownException) new ServerShutdownException(
             "Failed to shutdown server"
             + (shutdownException == null ? " before timeout." : ".")
-            + "Process was destroyed."
+            + "Process was destroyed.",
+            server.tail(FAILURE_TAIL_LINES)
             ).initCause(shutdownException);
       }
 
       System.out.println("Server stopped.") ;
    }
 
+   /**
+    * Start the server in the background.
+    * 
+    * Cancelling the returned future aborts the wait for the server and
+    * destroys its process.
+    *
+    * @param server
+    * @param manager
+    * @return a future completed with the server once it has started
+    */
+   public static CompletableFuture<Server> startServerAsync(final Server server, final ServerManager manager)
+   {
+      return runAsync(server, new LifecycleTask()
+      {
+         public void run() throws IOException
+         {
+            startServer(server, manager);
+         }
+      });
+   }
+
+   /**
+    * Stop the server in the background.
+    * 
+    * Cancelling the returned future aborts the wait for the shutdown and
+    * destroys the server's process.
+    *
+    * @param server
+    * @param manager
+    * @return a future completed with the server once it has stopped
+    */
+   public static CompletableFuture<Server> stopServerAsync(final Server server, final ServerManager manager)
+   {
+      return runAsync(server, new LifecycleTask()
+      {
+         public void run() throws IOException
+         {
+            stopServer(server, manager);
+         }
+      });
+   }
+
+   /**
+    * Stop the server if it is running, then start it, in the background.
+    * 
+    * Cancelling the returned future aborts whichever wait is in progress
+    * and destroys the server's process.
+    *
+    * @param server
+    * @param manager
+    * @return a future completed with the server once it has started again
+    */
+   public static CompletableFuture<Server> restartAsync(final Server server, final ServerManager manager)
+   {
+      return runAsync(server, new LifecycleTask()
+      {
+         public void run() throws IOException
+         {
+            if (server.isRunning())
+            {
+               stopServer(server, manager);
+            }
+            if (Thread.currentThread().isInterrupted())
+            {
+               throw new InterruptedIOException("Restart of server " + server.getName() + " cancelled.");
+            }
+            startServer(server, manager);
+         }
+      });
+   }
+
+   /**
+    * Run a lifecycle operation on the async executor.
+    */
+   private static CompletableFuture<Server> runAsync(final Server server, final LifecycleTask task)
+   {
+      final LifecycleFuture future = new LifecycleFuture();
+      ASYNC.execute(new Runnable()
+      {
+         public void run()
+         {
+            if (!future.begin(Thread.currentThread()))
+            {
+               // cancelled before it started
+               return;
+            }
+            try
+            {
+               task.run();
+               future.complete(server);
+            }
+            catch (Throwable t)
+            {
+               future.completeExceptionally(t);
+            }
+            finally
+            {
+               future.end();
+               // don't leak a late cancellation into the next task
+               Thread.interrupted();
+            }
+         }
+      });
+      return future;
+   }
+
+   /**
+    * A blocking lifecycle operation.
+    */
+   private interface LifecycleTask
+   {
+      void run() throws IOException;
+   }
+
+   /**
+    * A future which interrupts the thread running its operation when
+    * cancelled. The start and stop waits treat the interruption as a
+    * failure and destroy the server's process.
+    */
+   private static class LifecycleFuture extends CompletableFuture<Server>
+   {
+      /** the thread running the operation, null before and after **/
+      private Thread worker;
+
+      synchronized boolean begin(Thread thread)
+      {
+         if (isDone())
+         {
+            return false;
+         }
+         worker = thread;
+         return true;
+      }
+
+      synchronized void end()
+      {
+         worker = null;
+      }
+
+      @Override
+      public boolean cancel(boolean mayInterruptIfRunning)
+      {
+         boolean cancelled = super.cancel(mayInterruptIfRunning);
+         if (cancelled)
+         {
+            synchronized (this)
+            {
+               if (worker != null)
+               {
+                  worker.interrupt();
+               }
+            }
+         }
+         return cancelled;
+      }
+   }
+
    /**
     * Dump Server trace to file
     * @param server
     * @throws IOException on faled dump file write
     */
-   private static void writeServerDump(final Server server) throws IOException
+   private static void writeServerDump(final Server server, final ServerManager manager) throws IOException
    {
          String threadDump = null;
          Exception dumpException = null;
          try
          {
-            threadDump = server.listThreadDump();
+            threadDump = JmxCalls.call("Thread dump of server \"" + server.getName() + "\"",
+               TimeUnit.SECONDS.toMillis(manager.getJmxTimeout()), new Callable<String>()
+               {
+                  public String call() throws Exception
+                  {
+                     return server.listThreadDump();
+                  }
+               });
          }
          catch (Exception e)
          {
@@ -569,22 +864,354 @@ public abstract class ServerController
    {
       int shutdownTimeout = manager.getShutdownTimeout();
       System.out.println("shutdownTimeout will be="+shutdownTimeout);
-      for (int tries = 0; tries < shutdownTimeout; tries++)
+
+      final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(shutdownTimeout);
+      final Backoff backoff = new Backoff(server.getExpectedStopTime());
+      try
       {
-         try
+         while (server.isRunning())
          {
-            if (!server.isRunning())
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+            {
+               return false;
+            }
+            TimeUnit.NANOSECONDS.sleep(backoff.nextDelay(remaining));
+         }
+      }
+      catch (InterruptedException e)
+      {
+         // treat as a failed shutdown so the process gets destroyed
+         Thread.currentThread().interrupt();
+         return false;
+      }
+
+      server.setExpectedStopTime(backoff.elapsed());
+      return true;
+   }
+
+   /**
+    * Terminate a server process together with every process it spawned.
+    * 
+    * The whole tree is asked to terminate (SIGTERM on unix) and given
+    * gracePeriod to exit. Survivors are then killed forcibly, and finally
+    * the server's ports are checked to be released. Each step is timed and
+    * reported on the console.
+    *
+    * @param server the server
+    * @param manager the manager
+    * @param process the server's process
+    * @param gracePeriod time (in ms) allowed for a graceful exit, 0 to kill at once
+    * @return whether termination was confirmed
+    */
+   static boolean destroyProcessTree(Server server, ServerManager manager, Process process, long gracePeriod)
+   {
+      final long begin = System.nanoTime();
+      final String prefix = "Terminating server \"" + server.getName() + "\": ";
+
+      List<ProcessHandle> tree = collectTree(process);
+      List<ProcessHandle> alive = tree;
+      // whether any process was still there to be destroyed
+      boolean destroyed = false;
+      if (gracePeriod > 0)
+      {
+         for (ProcessHandle handle : tree)
+         {
+            destroyed |= handle.destroy();
+         }
+         System.err.println(prefix + "requested termination of " + pids(tree) + " in " + millisSince(begin) + " ms.");
+
+         alive = awaitExit(tree, gracePeriod);
+         if (alive.isEmpty())
+         {
+            System.err.println(prefix + "all processes exited within " + millisSince(begin) + " ms.");
+         }
+         else
+         {
+            System.err.println(prefix + pids(alive) + " still alive after the " + gracePeriod
+                  + " ms grace period; killing forcibly.");
+         }
+      }
+
+      if (!alive.isEmpty())
+      {
+         long killed = System.nanoTime();
+         for (ProcessHandle handle : alive)
+         {
+            destroyed |= handle.destroyForcibly();
+         }
+         alive = awaitExit(alive, PROCESS_DESTROY_DELAY);
+         if (alive.isEmpty())
+         {
+            System.err.println(prefix + "forcibly killed processes exited within " + millisSince(killed) + " ms.");
+         }
+         else
+         {
+            System.err.println(prefix + pids(alive) + " still alive " + millisSince(killed) + " ms after being killed.");
+         }
+      }
+
+      if (destroyed)
+      {
+         manager.publish(server, ServerLifecycleEvent.Type.KILLED, null);
+      }
+
+      long released = System.nanoTime();
+      boolean confirmed = alive.isEmpty() && awaitTermination(server, process);
+      System.err.println(prefix + (confirmed ? "ports released within " + millisSince(released) + " ms; " : "not confirmed; ")
+            + "took " + millisSince(begin) + " ms in total.");
+      return confirmed;
+   }
+
+   /**
+    * Forcibly kill the processes of several servers at once, as the
+    * shutdown hook does once its deadline has passed: every tree is
+    * killed first, then all of them are awaited against one deadline.
+    * The release of the servers' ports is not awaited.
+    *
+    * @param manager the manager, for the lifecycle events
+    * @param processes the servers and their processes
+    * @param timeout time (in ms) to wait for all of them to exit, 0 not to wait
+    * @return whether all processes exited
+    */
+   static boolean destroyProcessTrees(ServerManager manager, Map<Server, Process> processes, long timeout)
+   {
+      final long begin = System.nanoTime();
+      List<ProcessHandle> all = new ArrayList<ProcessHandle>();
+      List<Server> destroyed = new ArrayList<Server>();
+      for (Map.Entry<Server, Process> entry : processes.entrySet())
+      {
+         List<ProcessHandle> tree = collectTree(entry.getValue());
+         boolean any = false;
+         for (ProcessHandle handle : tree)
+         {
+            any |= handle.destroyForcibly();
+         }
+         if (any)
+         {
+            destroyed.add(entry.getKey());
+         }
+         all.addAll(tree);
+      }
+
+      List<ProcessHandle> alive = awaitExit(all, timeout);
+      for (Server server : destroyed)
+      {
+         manager.publish(server, ServerLifecycleEvent.Type.KILLED, null);
+      }
+      String killed = "Forcibly killed " + pids(all) + " of " + processes.size()
+            + (processes.size() == 1 ? " server; " : " servers; ");
+      if (alive.isEmpty())
+      {
+         System.err.println(killed + "all exited within " + millisSince(begin) + " ms.");
+      }
+      else
+      {
+         System.err.println(killed + pids(alive) + " still alive after " + millisSince(begin) + " ms.");
+      }
+      return alive.isEmpty();
+   }
+
+   /**
+    * A process and its descendants, collected before any is destroyed
+    * because the descendants are reparented once the root dies.
+    */
+   private static List<ProcessHandle> collectTree(Process process)
+   {
+      List<ProcessHandle> tree = new ArrayList<ProcessHandle>();
+      tree.add(process.toHandle());
+      for (Iterator<ProcessHandle> iter = process.descendants().iterator(); iter.hasNext();)
+      {
+         tree.add(iter.next());
+      }
+      return tree;
+   }
+
+   /**
+    * Wait for processes to exit.
+    *
+    * @param handles the processes
+    * @param timeout time (in ms) to wait for all of them
+    * @return the processes still alive
+    */
+   private static List<ProcessHandle> awaitExit(List<ProcessHandle> handles, long timeout)
+   {
+      final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+      List<ProcessHandle> alive = new ArrayList<ProcessHandle>();
+      boolean interrupted = false;
+      try
+      {
+         for (ProcessHandle handle : handles)
+         {
+            while (true)
+            {
+               try
+               {
+                  handle.onExit().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                  break;
+               }
+               catch (TimeoutException e)
+               {
+                  // checked below
+                  break;
+               }
+               catch (ExecutionException e)
+               {
+                  // checked below
+                  break;
+               }
+               catch (InterruptedException e)
+               {
+                  // a teardown runs to completion, the interrupt is restored below
+                  interrupted = true;
+               }
+            }
+            if (handle.isAlive())
+            {
+               alive.add(handle);
+            }
+         }
+         return alive;
+      }
+      finally
+      {
+         if (interrupted)
+         {
+            Thread.currentThread().interrupt();
+         }
+      }
+   }
+
+   private static String pids(List<ProcessHandle> handles)
+   {
+      StringBuilder pids = new StringBuilder(handles.size() == 1 ? "process " : "processes ");
+      for (int i = 0; i < handles.size(); i++)
+      {
+         pids.append(i == 0 ? "" : ", ").append(handles.get(i).pid());
+      }
+      return pids.toString();
+   }
+
+   private static long millisSince(long nanoTime)
+   {
+      return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - nanoTime);
+   }
+
+   /**
+    * Wait until a destroyed server process has exited and its ports no
+    * longer accept connections, for at most PROCESS_DESTROY_DELAY.
+    *
+    * @param server the server
+    * @param process the destroyed process
+    * @return whether termination was confirmed before the bound
+    */
+   private static boolean awaitTermination(Server server, Process process)
+   {
+      final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PROCESS_DESTROY_DELAY);
+      final Backoff backoff = new Backoff(0);
+      boolean interrupted = false;
+      try
+      {
+         while (true)
+         {
+            try
+            {
+               if (!process.waitFor(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS))
+               {
+                  System.err.println("Destroyed process of server \"" + server.getName() + "\" has not exited after "
+                        + PROCESS_DESTROY_DELAY + " ms.");
+                  return false;
+               }
+               break;
+            }
+            catch (InterruptedException e)
+            {
+               // a teardown runs to completion, the interrupt is restored below
+               interrupted = true;
+            }
+         }
+
+         long remaining;
+         while ((remaining = deadline - System.nanoTime()) > 0)
+         {
+            if (arePortsReleased(server))
             {
                return true;
             }
-            Thread.sleep(1000);
+            try
+            {
+               TimeUnit.NANOSECONDS.sleep(backoff.nextDelay(remaining));
+            }
+            catch (InterruptedException e)
+            {
+               interrupted = true;
+            }
          }
-         catch (InterruptedException e)
+         System.err.println("Ports of server \"" + server.getName() + "\" still accept connections "
+               + PROCESS_DESTROY_DELAY + " ms after its process was destroyed.");
+         return false;
+      }
+      finally
+      {
+         if (interrupted)
          {
+            Thread.currentThread().interrupt();
          }
       }
+   }
 
-      return false;
+   /**
+    * Check that nothing accepts connections on the server's HTTP and RMI ports.
+    *
+    * @param server the server
+    * @return whether the ports are free
+    */
+   private static boolean arePortsReleased(Server server)
+   {
+      try
+      {
+         if (server.hasWebServer() && new TcpReadinessProbe(Integer.valueOf(server.getAssignedHttpPort()), PORT_RELEASE_PROBE_TIMEOUT).isReady(server))
+         {
+            return false;
+         }
+         return !new TcpReadinessProbe(Integer.valueOf(server.getAssignedRmiPort()), PORT_RELEASE_PROBE_TIMEOUT).isReady(server);
+      }
+      catch (IOException e)
+      {
+         return false;
+      }
+   }
+
+   /**
+    * Read what an exited server process left in its pipes, then close
+    * its streams and the server's log writers.  Runs to completion even
+    * if the thread is interrupted, so the end of the logs is not lost;
+    * the interrupt is kept for the caller.
+    *
+    * @param server the server
+    * @param manager the manager
+    * @param process the server's process
+    */
+   private static void closeOutput(Server server, ServerManager manager, Process process)
+   {
+      closeOutput(server, manager, process, OUTPUT_DRAIN_TIMEOUT);
+   }
+
+   /**
+    * Read what an exited server process left in its pipes for at most
+    * drainTimeout, then close its streams and the server's log writers.
+    *
+    * @param server the server
+    * @param manager the manager
+    * @param process the server's process
+    * @param drainTimeout time (in ms) allowed to read the remaining output
+    */
+   static void closeOutput(Server server, ServerManager manager, Process process, long drainTimeout)
+   {
+      manager.getOutputMultiplexer().detach(server, Math.min(drainTimeout, OUTPUT_DRAIN_TIMEOUT));
+      closeAllStreams(process);
+      server.getErrorWriter().close();
+      server.getOutWriter().close();
    }
 
    /**
@@ -611,7 +1238,7 @@ public abstract class ServerController
     * @author <a href="ryan.campbell@jboss.com">Ryan Campbell</a>
     * @version $Revision: 82586 $
     */
-   private static class OutputPumper extends Thread
+   private static class OutputPumper implements Runnable
    {
       private final BufferedReader outputReader;
 
@@ -623,7 +1250,6 @@ public abstract class ServerController
          this.logWriter = logWriter;
       }
 
-      @Override
       public void run()
       {
          try
@@ -639,26 +1265,4 @@ public abstract class ServerController
          }
       }
    }
-
-   private static class ConsoleConsumer implements Runnable {
-     private final InputStream stream;
-
-    ConsoleConsumer(InputStream stream) {
-        this.stream = stream;
-     }
-
-             @Override
-             public void run() {
-                 final BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
-                 String line = null;
-                 try {
-                     while ((line = reader.readLine()) != null) {
-                         System.out.println(line);
-                     }
-                 } catch (IOException e) {
-
-                 }
-
-             }
-         }
-}
+}
\ No newline at end of file
@@ -0,0 +1,119 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.jbossas.servermanager;
+
+/**
+ * A change in the lifecycle of a managed server.
+ *
+ * @see ServerManager#getLifecycleEvents()
+ * @version $Revision: $
+ */
+public class ServerLifecycleEvent
+{
+   /**
+    * The kinds of lifecycle events.
+    */
+   public enum Type
+   {
+      /** the server process has been launched **/
+      LAUNCHED,
+      /** the server has started and is ready for use **/
+      READY,
+      /** the server has been asked to shut down **/
+      STOPPING,
+      /** the server process has exited, see {@link ServerLifecycleEvent#getExitCode()} **/
+      EXITED,
+      /** the server's processes were still alive and have been destroyed **/
+      KILLED,
+      /** the server did not start or stop within its timeout **/
+      TIMED_OUT
+   }
+
+   private final Server server;
+
+   private final Type type;
+
+   private final long timestamp;
+
+   private final Integer exitCode;
+
+   /**
+    * Create a new ServerLifecycleEvent.
+    *
+    * @param server the server
+    * @param type what happened
+    * @param exitCode the process' exit code for EXITED, else null
+    */
+   public ServerLifecycleEvent(Server server, Type type, Integer exitCode)
+   {
+      this.server = server;
+      this.type = type;
+      this.exitCode = exitCode;
+      this.timestamp = System.currentTimeMillis();
+   }
+
+   /**
+    * Get the server.
+    *
+    * @return the server
+    */
+   public Server getServer()
+   {
+      return server;
+   }
+
+   /**
+    * Get the type.
+    *
+    * @return what happened
+    */
+   public Type getType()
+   {
+      return type;
+   }
+
+   /**
+    * When the event happened.
+    *
+    * @return the time in ms since the epoch
+    */
+   public long getTimestamp()
+   {
+      return timestamp;
+   }
+
+   /**
+    * The exit code of the server process.
+    *
+    * @return the exit code for EXITED events, else null
+    */
+   public Integer getExitCode()
+   {
+      return exitCode;
+   }
+
+   @Override
+   public String toString()
+   {
+      return server.getName() + " " + type + (exitCode != null ? " (exit code " + exitCode + ")" : "");
+   }
+}
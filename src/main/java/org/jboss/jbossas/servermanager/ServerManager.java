@@ -23,9 +23,25 @@ package org.jboss.jbossas.servermanager;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.BiPredicate;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -44,6 +60,26 @@ public class ServerManager
    public static final String SYSTEM_PROPERTY_JBOSSAS_SHUTDOWN_TIMEOUT = "jbossas.shutdown.timeout";
    private static final int WAIT_TIME = Integer.parseInt(System.getProperty(SYSTEM_PROPERTY_JBOSSAS_SHUTDOWN_TIMEOUT, "45"));
    private static final int START_TIME = Integer.parseInt(System.getProperty(SYSTEM_PROPERTY_JBOSSAS_STARTUP_TIMEOUT, "120"));
+   // total time the JVM shutdown hook may spend stopping servers; defaults to the shutdown timeout
+   public static final String SYSTEM_PROPERTY_JBOSSAS_SHUTDOWN_HOOK_TIMEOUT = "jbossas.shutdown.hook.timeout";
+   private static final int HOOK_WAIT_TIME = Integer.parseInt(System.getProperty(SYSTEM_PROPERTY_JBOSSAS_SHUTDOWN_HOOK_TIMEOUT, String.valueOf(WAIT_TIME)));
+   // part of the shutdown hook timeout (in seconds) kept for killing what did not stop, at most a quarter of it
+   private static final int HOOK_KILL_TIME = 5;
+   // time a server's process tree is given to exit after SIGTERM before it is killed forcibly
+   public static final String SYSTEM_PROPERTY_JBOSSAS_KILL_GRACE_PERIOD = "jbossas.kill.grace.period";
+   private static final int KILL_GRACE_TIME = Integer.parseInt(System.getProperty(SYSTEM_PROPERTY_JBOSSAS_KILL_GRACE_PERIOD, "10"));
+   // number of threads reading the output of all servers
+   public static final String SYSTEM_PROPERTY_JBOSSAS_OUTPUT_THREADS = "jbossas.output.threads";
+   private static final int OUTPUT_THREADS = Integer.parseInt(System.getProperty(SYSTEM_PROPERTY_JBOSSAS_OUTPUT_THREADS, "2"));
+   // number of port offsets handed out to servers that allocate their ports, one per service binding set
+   public static final String SYSTEM_PROPERTY_JBOSSAS_PORT_BLOCKS = "jbossas.port.blocks";
+   private static final int PORT_BLOCKS = Integer.parseInt(System.getProperty(SYSTEM_PROPERTY_JBOSSAS_PORT_BLOCKS, String.valueOf(PortAllocator.DEFAULT_MAX_BLOCKS)));
+   // time (in seconds) a JMX call made by the manager, such as the shutdown request, may take
+   public static final String SYSTEM_PROPERTY_JBOSSAS_JMX_TIMEOUT = "jbossas.jmx.timeout";
+   private static final int JMX_TIME = Integer.parseInt(System.getProperty(SYSTEM_PROPERTY_JBOSSAS_JMX_TIMEOUT, "10"));
+   // readiness mode of servers that do not choose one: http, tcp, log or jmx
+   public static final String SYSTEM_PROPERTY_JBOSSAS_READINESS = "jbossas.readiness";
+   private static final String READINESS = System.getProperty(SYSTEM_PROPERTY_JBOSSAS_READINESS);
    
    /** jboss root **/
    private String jbossHome;
@@ -56,8 +92,39 @@ public class ServerManager
 
    private String udpGroup;
    
-   /** list of all configured servers **/
-   private List<Server> servers = new ArrayList<Server>();
+   /** list of all configured servers, in the order they were added **/
+   private final List<Server> servers = new CopyOnWriteArrayList<Server>();
+
+   /** the configured servers by name **/
+   private final Map<String, Server> serversByName = new ConcurrentHashMap<String, Server>();
+
+   /** held while the list and the index of servers are changed, so they change together **/
+   private final Object serversLock = new Object();
+
+   /** probes starting servers from one thread **/
+   private final ReadinessService readinessService = new ReadinessService();
+
+   /** hands out port offsets **/
+   private final PortAllocator portAllocator = new PortAllocator(PORT_BLOCKS);
+
+   /** notified of every line of server output **/
+   private final List<OutputListener> outputListeners = new CopyOnWriteArrayList<OutputListener>();
+
+   /** reads the output of all servers **/
+   private final OutputMultiplexer outputMultiplexer = new OutputMultiplexer(OUTPUT_THREADS, outputListeners);
+
+   /** writes out the batched server logs **/
+   private final ScheduledExecutorService logFlusher = ServerThreads.newScheduler("ServerManager-log-flusher");
+
+   /** publishes lifecycle events to subscribers **/
+   private final SubmissionPublisher<ServerLifecycleEvent> lifecycleEvents =
+      new SubmissionPublisher<ServerLifecycleEvent>(ServerThreads.newUnboundedPool("ServerManager-events"), Flow.defaultBufferSize());
+
+   /** lifecycle events dropped for subscribers with a full buffer **/
+   private final AtomicLong droppedLifecycleEvents = new AtomicLong();
+
+   /** rolls the server logs and compresses old generations **/
+   private final LogRoller logRoller = new LogRoller(ServerThreads.newSingleThread("ServerManager-log-compressor"));
 
    /**
     * Create a new ServerManager.  Make sure all servers are killed on shutdown.
@@ -69,28 +136,136 @@ public class ServerManager
       {
          public void run()
          {
-            for (Iterator<Server> iter = servers.iterator(); iter.hasNext();)
+            try
+            {
+               stopRunningServers();
+            }
+            finally
             {
-               Server server = iter.next();
-               if (server!=null && server.isRunning())
+               // subscribers learn that no event will follow
+               lifecycleEvents.close();
+            }
+         }
+      };
+
+      Runtime.getRuntime().addShutdownHook(cleanupThread);
+
+   }
+
+   /**
+    * Stop every server that is still running, all at once, and kill
+    * whatever is still alive when the shutdown hook timeout passes.
+    * The logs of every server the hook finds with a process, running or
+    * not, are closed before it returns.  Called from the JVM shutdown hook.
+    */
+   private void stopRunningServers()
+   {
+      final Map<Server, Future<?>> stopping = new LinkedHashMap<Server, Future<?>>();
+      ExecutorService pool = ServerThreads.newUnboundedPool("ServerManager-shutdown-hook");
+      try
+      {
+         for (Iterator<Server> iter = servers.iterator(); iter.hasNext();)
+         {
+            final Server server = iter.next();
+            if (server!=null && server.isRunning())
+            {
+               System.err.println("Testsuite shutdown hook found server \""+server.getName()+"\" still running; stopping it.");
+               stopping.put(server, pool.submit(new Callable<Object>()
                {
-                  System.err.println("Testsuite shutdown hook found server \""+server.getName()+"\" still running; stopping it.");
-                  try
+                  public Object call() throws IOException
                   {
                      ServerController.stopServer(server, ServerManager.this);
+                     return null;
                   }
-                  catch (IOException e)
+               }));
+            }
+            else if (server != null && server.getState() == Server.State.EXITED && server.getProcess() != null)
+            {
+               // exited by itself and never stopped, its logs are still open
+               final Process process = server.getProcess();
+               stopping.put(server, pool.submit(new Callable<Object>()
+               {
+                  public Object call()
                   {
-                     System.err.println("Testsuite shutdown hook failed to stop server(s) on shutdown.");
-                     e.printStackTrace(System.err);
+                     ServerController.closeOutput(server, ServerManager.this, process, Long.MAX_VALUE);
+                     return null;
                   }
-               }
+               }));
             }
          }
-      };
+      }
+      finally
+      {
+         pool.shutdown();
+      }
 
-      Runtime.getRuntime().addShutdownHook(cleanupThread);
+      if (stopping.isEmpty())
+      {
+         return;
+      }
+
+      // the kill of the survivors counts against the total too, so the
+      // stops only get what is left once its share is set aside
+      final long total = TimeUnit.SECONDS.toNanos(getShutdownHookTimeout());
+      final long stopTime = total - Math.min(TimeUnit.SECONDS.toNanos(HOOK_KILL_TIME), total / 4);
+      final long begin = System.nanoTime();
+      final long deadline = begin + total;
+      final long stopDeadline = begin + stopTime;
+      for (Map.Entry<Server, Future<?>> entry : stopping.entrySet())
+      {
+         Server server = entry.getKey();
+         try
+         {
+            entry.getValue().get(Math.max(0, stopDeadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+         }
+         catch (ExecutionException e)
+         {
+            System.err.println("Testsuite shutdown hook failed to stop server \"" + server.getName() + "\" on shutdown.");
+            e.getCause().printStackTrace(System.err);
+         }
+         catch (TimeoutException e)
+         {
+            // fall through to the kill below
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            break;
+         }
+      }
 
+      Map<Server, Process> survivors = new LinkedHashMap<Server, Process>();
+      for (Server server : stopping.keySet())
+      {
+         // read once, the stopping thread clears it when done
+         Process process = server.getProcess();
+         if (process != null && server.isRunning())
+         {
+            System.err.println("Testsuite shutdown hook: server \"" + server.getName() + "\" did not stop within "
+                  + TimeUnit.NANOSECONDS.toMillis(stopTime) + " ms; killing its processes.");
+            survivors.put(server, process);
+         }
+      }
+      if (!survivors.isEmpty())
+      {
+         // no grace period; kill all, then wait once for what is left of the total
+         ServerController.destroyProcessTrees(this, survivors,
+               TimeUnit.NANOSECONDS.toMillis(Math.max(0, deadline - System.nanoTime())));
+      }
+
+      // the log writer threads are daemons, so what is buffered is only
+      // written if the logs are closed here, before the JVM goes
+      for (Map.Entry<Server, Future<?>> entry : stopping.entrySet())
+      {
+         Server server = entry.getKey();
+         Process process = server.getProcess();
+         if (!entry.getValue().isDone() && process != null)
+         {
+            ServerController.closeOutput(server, this, process,
+                  TimeUnit.NANOSECONDS.toMillis(Math.max(0, deadline - System.nanoTime())));
+         }
+      }
+      pool.shutdownNow();
    }
 
    /**
@@ -101,55 +276,82 @@ public class ServerManager
    public void addServer(Server newServer)
    {
       newServer.setManager(this);
-      servers.add(newServer);
+      synchronized (serversLock)
+      {
+         servers.add(newServer);
+         if (newServer.getName() != null)
+         {
+            serversByName.putIfAbsent(newServer.getName(), newServer);
+         }
+      }
    }
 
    /**
-    * Get the server by name.  Can't use a hashmap because of 
-    * Ant.
+    * Get the server by name.  Ant adds a server before setting
+    * its attributes, so a server that is not indexed yet is looked
+    * up in the list and indexed then.
     * 
     * @param name the name of the server
     * @return the server
     */
    public Server getServer(String name)
    {
-      for (Iterator<Server> iter = servers.iterator(); iter.hasNext();)
+      Server server = name != null ? serversByName.get(name) : null;
+      if (server != null && name.equals(server.getName()))
+      {
+         return server;
+      }
+      synchronized (serversLock)
       {
-         Server server = iter.next();
-         if (server.getName().equals(name))
+         // a server deleted meanwhile is no longer listed, so it is never indexed again
+         for (Iterator<Server> iter = servers.iterator(); iter.hasNext();)
          {
-            return server;
+            server = iter.next();
+            if (name != null && name.equals(server.getName()))
+            {
+               Server indexed = serversByName.putIfAbsent(name, server);
+               if (indexed != null && !name.equals(indexed.getName()))
+               {
+                  // the indexed server has been renamed since
+                  serversByName.replace(name, indexed, server);
+               }
+               return server;
+            }
          }
       }
       throw new IllegalArgumentException("There is no server named: " + name);
    }
 
    /**
-    * Stop managing server. Can't use a hashmap because of Ant.
+    * Stop managing server.
     * 
     * @param name the name of the server
-    * @return the server
     */
    public void delServer(String name)
    {
-      try
+      Server server;
+      synchronized (serversLock)
       {
-         servers.remove(name);
+         server = getServer(name);
+         servers.remove(server);
+         serversByName.remove(name, server);
       }
-      catch (IllegalArgumentException e)
+      if (server.isAllocatePorts())
       {
-         throw new IllegalArgumentException("There is no server named: " + name, e);
+         portAllocator.release(server);
       }
    }
    
    /**
-    * Retreives a list of all running servers
+    * Retreives a list of all configured servers, in the order they were
+    * added.  The list follows {@link #addServer(Server)} and
+    * {@link #delServer(String)}, and cannot be changed otherwise.
     * 
     * @return
     */
    public List<Server> getServers()
    {
-      return this.servers;
+      return Collections.unmodifiableList(this.servers);
    }
 
    /**
@@ -174,6 +376,304 @@ public class ServerManager
       ServerController.stopServer(getServer(name), this);
    }
 
+   /**
+    * Start the named servers, at most maxParallel at a time.
+    * 
+    * All servers share one deadline, the startup timeout, which servers
+    * waiting for a free slot count against too.
+    *
+    * @param serverNames the servers to start
+    * @param maxParallel how many servers may boot concurrently
+    * @return the outcome for each server, in the order given
+    */
+   public Map<String, ServerOutcome> startAll(Collection<String> serverNames, int maxParallel)
+   {
+      return startAll(serverNames, maxParallel, getStartupTimeout());
+   }
+
+   /**
+    * Start the named servers, at most maxParallel at a time, giving
+    * up on any server still booting once timeout seconds have passed.
+    *
+    * @param serverNames the servers to start
+    * @param maxParallel how many servers may boot concurrently
+    * @param timeout the deadline (in seconds) for the whole batch
+    * @return the outcome for each server, in the order given
+    */
+   public Map<String, ServerOutcome> startAll(Collection<String> serverNames, int maxParallel, long timeout)
+   {
+      return runAll(serverNames, maxParallel, timeout, true);
+   }
+
+   /**
+    * Stop the named servers, at most maxParallel at a time.
+    * 
+    * All servers share one deadline, the shutdown timeout, which servers
+    * waiting for a free slot count against too.
+    *
+    * @param serverNames the servers to stop
+    * @param maxParallel how many servers may shut down concurrently
+    * @return the outcome for each server, in the order given
+    */
+   public Map<String, ServerOutcome> stopAll(Collection<String> serverNames, int maxParallel)
+   {
+      return stopAll(serverNames, maxParallel, getShutdownTimeout());
+   }
+
+   /**
+    * Stop the named servers, at most maxParallel at a time, giving
+    * up on any server still stopping once timeout seconds have passed.
+    *
+    * @param serverNames the servers to stop
+    * @param maxParallel how many servers may shut down concurrently
+    * @param timeout the deadline (in seconds) for the whole batch
+    * @return the outcome for each server, in the order given
+    */
+   public Map<String, ServerOutcome> stopAll(Collection<String> serverNames, int maxParallel, long timeout)
+   {
+      return runAll(serverNames, maxParallel, timeout, false);
+   }
+
+   /**
+    * Run ServerController.startServer or stopServer for each server
+    * on a bounded pool and collect the individual outcomes.  A server
+    * still starting or stopping at the deadline is interrupted, and its
+    * process torn down, before this returns; a server still queued is
+    * not touched.
+    *
+    * @param serverNames the servers
+    * @param maxParallel the pool size
+    * @param timeout the deadline (in seconds) for the whole batch
+    * @param start whether to start (true) or stop (false) the servers
+    * @return the outcome for each server
+    */
+   private Map<String, ServerOutcome> runAll(Collection<String> serverNames, int maxParallel, long timeout, final boolean start)
+   {
+      if (maxParallel < 1)
+      {
+         throw new IllegalArgumentException("maxParallel must be at least 1: " + maxParallel);
+      }
+
+      // resolve every name before touching any server
+      final Map<String, Server> batch = new LinkedHashMap<String, Server>();
+      for (String name : serverNames)
+      {
+         batch.put(name, getServer(name));
+      }
+
+      final Map<String, Future<Long>> futures = new LinkedHashMap<String, Future<Long>>();
+      final Map<String, Long> launched = new ConcurrentHashMap<String, Long>();
+      ExecutorService pool = ServerThreads.newFixedPool("ServerManager-" + (start ? "start" : "stop"),
+            Math.min(maxParallel, Math.max(batch.size(), 1)));
+      try
+      {
+         for (final Map.Entry<String, Server> entry : batch.entrySet())
+         {
+            futures.put(entry.getKey(), pool.submit(new Callable<Long>()
+            {
+               public Long call() throws Exception
+               {
+                  long begin = System.nanoTime();
+                  launched.put(entry.getKey(), Long.valueOf(begin));
+                  if (start)
+                  {
+                     ServerController.startServer(entry.getValue(), ServerManager.this);
+                  }
+                  else
+                  {
+                     ServerController.stopServer(entry.getValue(), ServerManager.this);
+                  }
+                  return Long.valueOf(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+               }
+            }));
+         }
+      }
+      finally
+      {
+         pool.shutdown();
+      }
+
+      final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
+      Map<String, ServerOutcome> outcomes = new LinkedHashMap<String, ServerOutcome>();
+      for (Map.Entry<String, Future<Long>> entry : futures.entrySet())
+      {
+         String name = entry.getKey();
+         Future<Long> future = entry.getValue();
+         try
+         {
+            long elapsed = future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS).longValue();
+            outcomes.put(name, new ServerOutcome(name, null, false, elapsed));
+         }
+         catch (ExecutionException e)
+         {
+            outcomes.put(name, new ServerOutcome(name, e.getCause(), false, sinceLaunch(launched.get(name))));
+         }
+         catch (TimeoutException e)
+         {
+            future.cancel(true);
+            outcomes.put(name, new ServerOutcome(name, null, true, sinceLaunch(launched.get(name))));
+         }
+         catch (InterruptedException e)
+         {
+            // stop waiting, but still report every server
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            outcomes.put(name, new ServerOutcome(name, e, false, sinceLaunch(launched.get(name))));
+         }
+      }
+      pool.shutdownNow();
+
+      // the interrupted servers tear their processes down, which is bounded
+      // by the kill grace period; wait for it so none outlives the report
+      try
+      {
+         while (!pool.awaitTermination(1, TimeUnit.SECONDS))
+         {
+            // keep waiting
+         }
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+
+      return outcomes;
+   }
+
+   /**
+    * Milliseconds since the given System.nanoTime() stamp, or 0 if the
+    * task never started.
+    */
+   private static long sinceLaunch(Long begin)
+   {
+      return begin == null ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin.longValue());
+   }
+
+   /**
+    * The allocator of port offsets for servers that run side by side.
+    *
+    * @return the port allocator
+    */
+   public PortAllocator getPortAllocator()
+   {
+      return portAllocator;
+   }
+
+   /**
+    * Register a listener for the output of all servers.
+    *
+    * @param listener the listener
+    */
+   public void addOutputListener(OutputListener listener)
+   {
+      outputListeners.add(listener);
+   }
+
+   /**
+    * Unregister an output listener.
+    *
+    * @param listener the listener
+    */
+   public void removeOutputListener(OutputListener listener)
+   {
+      outputListeners.remove(listener);
+   }
+
+   /**
+    * The lifecycle events of all servers. Each subscriber receives
+    * events as it requests them; an event is dropped for a subscriber
+    * whose buffer is full, so a lagging subscriber never holds up the
+    * thread publishing the event.  Subscribers are completed when the
+    * JVM shuts down, once the shutdown hook has dealt with the servers.
+    *
+    * @see #getDroppedLifecycleEvents()
+    *
+    * @return the publisher of lifecycle events
+    */
+   public Flow.Publisher<ServerLifecycleEvent> getLifecycleEvents()
+   {
+      return lifecycleEvents;
+   }
+
+   /**
+    * The number of lifecycle events dropped so far for subscribers
+    * that did not keep up.
+    *
+    * @return the dropped event count
+    */
+   public long getDroppedLifecycleEvents()
+   {
+      return droppedLifecycleEvents.get();
+   }
+
+   /**
+    * Publish a lifecycle event to the subscribers.
+    *
+    * @param server the server
+    * @param type what happened
+    * @param exitCode the exit code for EXITED, else null
+    */
+   void publish(Server server, ServerLifecycleEvent.Type type, Integer exitCode)
+   {
+      final ServerLifecycleEvent event = new ServerLifecycleEvent(server, type, exitCode);
+      try
+      {
+         lifecycleEvents.offer(event, new BiPredicate<Flow.Subscriber<? super ServerLifecycleEvent>, ServerLifecycleEvent>()
+         {
+            public boolean test(Flow.Subscriber<? super ServerLifecycleEvent> subscriber, ServerLifecycleEvent dropped)
+            {
+               droppedLifecycleEvents.incrementAndGet();
+               System.err.println("Dropped lifecycle event \"" + dropped + "\" for a slow subscriber.");
+               return false;
+            }
+         });
+      }
+      catch (IllegalStateException e)
+      {
+         // closed by the shutdown hook, an exit noticed late has no one to tell
+      }
+   }
+
+   /**
+    * The service probing the readiness of starting servers.
+    *
+    * @return the readiness service
+    */
+   ReadinessService getReadinessService()
+   {
+      return readinessService;
+   }
+
+   /**
+    * The reader of all servers' output and error streams.
+    *
+    * @return the output multiplexer
+    */
+   OutputMultiplexer getOutputMultiplexer()
+   {
+      return outputMultiplexer;
+   }
+
+   /**
+    * The thread writing the batched server logs to disk.
+    *
+    * @return the log flusher
+    */
+   ScheduledExecutorService getLogFlusher()
+   {
+      return logFlusher;
+   }
+
+   /**
+    * Rolls and compresses the server logs.
+    *
+    * @return the log roller
+    */
+   LogRoller getLogRoller()
+   {
+      return logRoller;
+   }
+
    /**
     * Get the jvm.
     * 
@@ -271,6 +771,51 @@ public class ServerManager
       return WAIT_TIME;
    }
 
+   /** 
+    * How long the JVM shutdown hook may spend (in seconds), in total,
+    * stopping the servers that are still running and killing those that
+    * do not stop in time
+    * 
+    * @return the shutdown hook timeout
+    */
+   public int getShutdownHookTimeout()
+   {
+      return HOOK_WAIT_TIME;
+   }
+
+   /** 
+    * How long (in seconds) a server's processes are given to exit
+    * after being asked to terminate, before they are killed forcibly
+    * 
+    * @return the kill grace period
+    */
+   public int getKillGracePeriod()
+   {
+      return KILL_GRACE_TIME;
+   }
+
+   /** 
+    * How long (in seconds) a JMX call made by the manager, such as the
+    * shutdown request or the thread dump, may take before it is abandoned
+    * 
+    * @return the jmx call timeout
+    */
+   public int getJmxTimeout()
+   {
+      return JMX_TIME;
+   }
+
+   /** 
+    * How to decide that a server has started, for servers that do
+    * not choose (see {@link Server#setReadiness(String)})
+    * 
+    * @return the readiness mode, or null for the probe of the server's ports
+    */
+   public String getDefaultReadiness()
+   {
+      return READINESS;
+   }
+
    /** 
     * How long to wait (in seconds) for a server to startup
     * 
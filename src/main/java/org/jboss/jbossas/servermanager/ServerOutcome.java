@@ -0,0 +1,116 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.jbossas.servermanager;
+
+/**
+ * The outcome of starting or stopping a single server as part of
+ * a {@link ServerManager#startAll} or {@link ServerManager#stopAll} batch.
+ *
+ * @version $Revision: $
+ */
+public class ServerOutcome
+{
+   /** the handle of the server **/
+   private final String serverName;
+
+   /** the failure, or null if the operation succeeded **/
+   private final Throwable failure;
+
+   /** whether the operation was abandoned at the batch deadline **/
+   private final boolean timedOut;
+
+   /** how long the operation took **/
+   private final long elapsedMillis;
+
+   /**
+    * Create a new ServerOutcome.
+    *
+    * @param serverName the name of the server
+    * @param failure the failure, or null on success
+    * @param timedOut whether the batch deadline passed first
+    * @param elapsedMillis the time spent on this server
+    */
+   public ServerOutcome(String serverName, Throwable failure, boolean timedOut, long elapsedMillis)
+   {
+      this.serverName = serverName;
+      this.failure = failure;
+      this.timedOut = timedOut;
+      this.elapsedMillis = elapsedMillis;
+   }
+
+   /**
+    * Get the server name.
+    *
+    * @return the server name
+    */
+   public String getServerName()
+   {
+      return serverName;
+   }
+
+   /**
+    * Did the operation complete without error before the deadline?
+    *
+    * @return whether the operation succeeded
+    */
+   public boolean isSuccessful()
+   {
+      return failure == null && !timedOut;
+   }
+
+   /**
+    * Get the failure.
+    *
+    * @return the exception thrown by the operation, or null
+    */
+   public Throwable getFailure()
+   {
+      return failure;
+   }
+
+   /**
+    * Was the operation abandoned because the batch deadline passed?
+    *
+    * @return whether the operation timed out
+    */
+   public boolean isTimedOut()
+   {
+      return timedOut;
+   }
+
+   /**
+    * How long the operation took, or ran before being abandoned.
+    *
+    * @return the elapsed time in milliseconds
+    */
+   public long getElapsedMillis()
+   {
+      return elapsedMillis;
+   }
+
+   @Override
+   public String toString()
+   {
+      String state = isSuccessful() ? "ok" : (timedOut ? "timed out" : "failed: " + failure);
+      return serverName + " [" + state + ", " + elapsedMillis + " ms]";
+   }
+}
@@ -22,6 +22,8 @@
 package org.jboss.jbossas.servermanager;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Signals server shutdown problems.
@@ -34,6 +36,9 @@ public class ServerShutdownException extends IOException
 
    private static final long serialVersionUID = -5780972128903401746L;
 
+   /** the last lines the server wrote before being stopped **/
+   private List<String> outputTail;
+
    public ServerShutdownException() 
    {
       super();
@@ -44,4 +49,20 @@ public class ServerShutdownException extends IOException
       super(s);
    }
 
+   public ServerShutdownException(String s, List<String> outputTail) 
+   {
+      super(s);
+      this.outputTail = outputTail;
+   }
+
+   /**
+    * The last lines the server wrote to its output and error streams.
+    * 
+    * @return the lines, oldest first
+    */
+   public List<String> getOutputTail()
+   {
+      return outputTail == null ? Collections.<String>emptyList() : outputTail;
+   }
+
 }
@@ -0,0 +1,57 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.jbossas.servermanager;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Signals server startup problems.
+ * 
+ * @version $Revision: $
+ */
+public class ServerStartupException extends IOException
+{
+
+   private static final long serialVersionUID = 2937616271843627203L;
+
+   /** the last lines the server wrote before failing **/
+   private final List<String> outputTail;
+
+   public ServerStartupException(String s, List<String> outputTail)
+   {
+      super(s);
+      this.outputTail = outputTail;
+   }
+
+   /**
+    * The last lines the server wrote to its output and error streams.
+    * 
+    * @return the lines, oldest first
+    */
+   public List<String> getOutputTail()
+   {
+      return outputTail == null ? Collections.<String>emptyList() : outputTail;
+   }
+
+}
@@ -0,0 +1,232 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.jbossas.servermanager;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates every background thread of the server manager: output pumps,
+ * readiness probes, log flushing and the parallel start/stop/wait pools.
+ * 
+ * Threads are daemon platform threads unless the jbossas.threads system
+ * property is "virtual" and the JVM supports virtual threads (Java 21),
+ * in which case they are virtual threads. The virtual thread API is
+ * reached reflectively so the manager still builds and runs on older JVMs.
+ * 
+ * Platform threads are daemons, as the output readers always were, so a
+ * build never hangs on them; they may die mid-task when the JVM exits.
+ * Nothing is lost for it: the shutdown hook closes the log writers of
+ * every server it finds, which writes out what they buffer, and a log
+ * segment left uncompressed is archived by the next run.
+ *
+ * @version $Revision: $
+ */
+final class ServerThreads
+{
+   /** "platform" (the default) or "virtual" **/
+   static final String SYSTEM_PROPERTY_JBOSSAS_THREADS = "jbossas.threads";
+
+   /** Thread.ofVirtual(), Thread.Builder.name(String), name(String, long), factory(), unstarted(Runnable) **/
+   private static final Method OF_VIRTUAL;
+
+   private static final Method NAME;
+
+   private static final Method NAME_COUNTER;
+
+   private static final Method FACTORY;
+
+   private static final Method UNSTARTED;
+
+   /** Executors.newThreadPerTaskExecutor(ThreadFactory) **/
+   private static final Method PER_TASK;
+
+   static
+   {
+      Method[] methods = null;
+      if ("virtual".equalsIgnoreCase(System.getProperty(SYSTEM_PROPERTY_JBOSSAS_THREADS, "platform")))
+      {
+         try
+         {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            methods = new Method[]
+            {
+               Thread.class.getMethod("ofVirtual"),
+               builder.getMethod("name", String.class),
+               builder.getMethod("name", String.class, long.class),
+               builder.getMethod("factory"),
+               builder.getMethod("unstarted", Runnable.class),
+               Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+            };
+         }
+         catch (Exception e)
+         {
+            System.err.println("Virtual threads are not supported by this JVM (" + System.getProperty("java.version")
+                  + "); using platform threads.");
+         }
+      }
+      OF_VIRTUAL = methods == null ? null : methods[0];
+      NAME = methods == null ? null : methods[1];
+      NAME_COUNTER = methods == null ? null : methods[2];
+      FACTORY = methods == null ? null : methods[3];
+      UNSTARTED = methods == null ? null : methods[4];
+      PER_TASK = methods == null ? null : methods[5];
+   }
+
+   private ServerThreads()
+   {
+   }
+
+   /**
+    * Are background tasks run on virtual threads?
+    *
+    * @return whether virtual threads are used
+    */
+   static boolean isVirtual()
+   {
+      return OF_VIRTUAL != null;
+   }
+
+   /**
+    * A factory of threads named name-1, name-2, ...
+    *
+    * @param name the name prefix
+    * @return the thread factory
+    */
+   static ThreadFactory factory(final String name)
+   {
+      if (isVirtual())
+      {
+         try
+         {
+            return (ThreadFactory) FACTORY.invoke(NAME_COUNTER.invoke(OF_VIRTUAL.invoke(null), name + "-", Long.valueOf(1)));
+         }
+         catch (Exception e)
+         {
+            throw new IllegalStateException("Cannot create virtual thread factory", e);
+         }
+      }
+
+      return new ThreadFactory()
+      {
+         private final AtomicInteger count = new AtomicInteger();
+
+         public Thread newThread(Runnable r)
+         {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+         }
+      };
+   }
+
+   /**
+    * Start a task on its own thread.
+    *
+    * @param name the thread name
+    * @param task the task
+    * @return the started thread
+    */
+   static Thread start(String name, Runnable task)
+   {
+      Thread thread;
+      if (isVirtual())
+      {
+         try
+         {
+            thread = (Thread) UNSTARTED.invoke(NAME.invoke(OF_VIRTUAL.invoke(null), name), task);
+         }
+         catch (Exception e)
+         {
+            throw new IllegalStateException("Cannot create virtual thread", e);
+         }
+      }
+      else
+      {
+         thread = new Thread(task, name);
+         thread.setDaemon(true);
+      }
+      thread.start();
+      return thread;
+   }
+
+   /**
+    * A pool running at most threads tasks at a time.
+    *
+    * @param name the thread name prefix
+    * @param threads the pool size
+    * @return the executor
+    */
+   static ExecutorService newFixedPool(String name, int threads)
+   {
+      return Executors.newFixedThreadPool(threads, factory(name));
+   }
+
+   /**
+    * An unbounded executor for short or blocking tasks: a cached pool of
+    * platform threads, or a new virtual thread per task.
+    *
+    * @param name the thread name prefix
+    * @return the executor
+    */
+   static ExecutorService newUnboundedPool(String name)
+   {
+      if (isVirtual())
+      {
+         try
+         {
+            return (ExecutorService) PER_TASK.invoke(null, factory(name));
+         }
+         catch (Exception e)
+         {
+            throw new IllegalStateException("Cannot create virtual thread executor", e);
+         }
+      }
+      return Executors.newCachedThreadPool(factory(name));
+   }
+
+   /**
+    * A single thread running tasks in order.
+    *
+    * @param name the thread name prefix
+    * @return the executor
+    */
+   static ExecutorService newSingleThread(String name)
+   {
+      return Executors.newSingleThreadExecutor(factory(name));
+   }
+
+   /**
+    * A single thread running delayed and periodic tasks.
+    *
+    * @param name the thread name prefix
+    * @return the scheduler
+    */
+   static ScheduledExecutorService newScheduler(String name)
+   {
+      return Executors.newSingleThreadScheduledExecutor(factory(name));
+   }
+}
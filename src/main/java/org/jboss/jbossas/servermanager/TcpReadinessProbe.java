@@ -0,0 +1,109 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2005, JBoss Inc., and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.jbossas.servermanager;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Ready once a TCP connection to a port of the server is accepted.
+ * Probes the server's assigned RMI port unless given a port.
+ *
+ * @version $Revision: $
+ */
+public class TcpReadinessProbe implements ReadinessProbe
+{
+   /** default time (in ms) allowed to connect **/
+   public static final int DEFAULT_CONNECT_TIMEOUT = 1000;
+
+   /** the port to probe, or null for the server's rmi port **/
+   private final Integer port;
+
+   private final int connectTimeout;
+
+   /**
+    * Create a new TcpReadinessProbe of the RMI port with the default timeout.
+    */
+   public TcpReadinessProbe()
+   {
+      this(null, DEFAULT_CONNECT_TIMEOUT);
+   }
+
+   /**
+    * Create a new TcpReadinessProbe.
+    *
+    * @param port the port to probe, or null for the server's rmi port
+    * @param connectTimeout time (in ms) allowed to connect
+    */
+   public TcpReadinessProbe(Integer port, int connectTimeout)
+   {
+      this.port = port;
+      this.connectTimeout = connectTimeout;
+   }
+
+   public boolean isReady(Server server) throws IOException
+   {
+      int target = getPort(server);
+      Socket socket = new Socket();
+      try
+      {
+         socket.connect(new InetSocketAddress(server.getHost(), target), connectTimeout);
+         return true;
+      }
+      catch (IOException e)
+      {
+         return false;
+      }
+      finally
+      {
+         socket.close();
+      }
+   }
+
+   /**
+    * The port probed on a server.
+    *
+    * @param server the server
+    * @return the port
+    */
+   int getPort(Server server)
+   {
+      return port != null ? port.intValue() : server.getAssignedRmiPort();
+   }
+
+   /**
+    * Get the connect timeout.
+    *
+    * @return time (in ms) allowed to connect
+    */
+   int getConnectTimeout()
+   {
+      return connectTimeout;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "TCP connect to " + (port != null ? "port " + port : "rmi port") + " (" + connectTimeout + " ms)";
+   }
+}
@@ -0,0 +1,89 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.jbossas.servermanager.test.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import org.jboss.jbossas.servermanager.ServerManager;
+
+/**
+ * FakeJBossHome
+ * 
+ * A JBoss home and a Java home whose "java" is a shell script standing
+ * in for the server: it prints the given lines and then stays alive, so
+ * that starting, probing and stopping can be tested without an AS
+ * installation.  Needs a POSIX shell.
+ *
+ * @version $Revision: $
+ */
+public class FakeJBossHome
+{
+   private final File root;
+
+   /**
+    * Create the homes, with a server that prints the given lines.
+    *
+    * @param lines the server's output
+    * @throws IOException if the files cannot be written
+    */
+   public FakeJBossHome(String... lines) throws IOException
+   {
+      root = TempDirs.create("fakejbosshome");
+      new File(root, "jboss/bin").mkdirs();
+      new File(root, "jboss/server/default").mkdirs();
+      File bin = new File(root, "java/bin");
+      bin.mkdirs();
+
+      StringBuilder script = new StringBuilder("#!/bin/sh\n");
+      for (String line : lines)
+      {
+         script.append("echo '").append(line.replace("'", "'\\''")).append("'\n");
+      }
+      script.append("exec sleep 600\n");
+      File java = new File(bin, "java");
+      Files.write(java.toPath(), script.toString().getBytes(StandardCharsets.UTF_8));
+      Files.setPosixFilePermissions(java.toPath(), PosixFilePermissions.fromString("rwxr-xr-x"));
+   }
+
+   /**
+    * Point a manager at the homes.
+    *
+    * @param manager the manager
+    */
+   public void apply(ServerManager manager)
+   {
+      manager.setJavaHome(new File(root, "java").getAbsolutePath());
+      manager.setJbossHome(new File(root, "jboss").getAbsolutePath());
+   }
+
+   /**
+    * Delete the homes.
+    */
+   public void delete()
+   {
+      TempDirs.delete(root);
+   }
+}
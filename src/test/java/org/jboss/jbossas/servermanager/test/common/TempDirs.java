@@ -0,0 +1,74 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.jbossas.servermanager.test.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * TempDirs
+ * 
+ * Temporary directories for tests, and their removal.
+ *
+ * @version $Revision: $
+ */
+public final class TempDirs
+{
+   private TempDirs()
+   {
+   }
+
+   /**
+    * Create a new, empty temporary directory.
+    *
+    * @param prefix the start of its name
+    * @return the directory
+    * @throws IOException if it cannot be created
+    */
+   public static File create(String prefix) throws IOException
+   {
+      return Files.createTempDirectory(prefix).toFile();
+   }
+
+   /**
+    * Delete a file, or a directory and everything in it.
+    *
+    * @param file the file or directory, may be null
+    */
+   public static void delete(File file)
+   {
+      if (file == null)
+      {
+         return;
+      }
+      File[] children = file.listFiles();
+      if (children != null)
+      {
+         for (File child : children)
+         {
+            delete(child);
+         }
+      }
+      file.delete();
+   }
+}
@@ -0,0 +1,251 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.jbossas.servermanager.test.connection.unit;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.naming.Context;
+
+import junit.framework.TestCase;
+
+import org.jboss.jbossas.servermanager.Server;
+import org.junit.Test;
+
+/**
+ * ServerConnectionTest
+ * 
+ * Checks how a server's MBeanServerConnection is looked up, validated
+ * and replaced, against a fake naming context handing out fake
+ * connections.
+ *
+ * @version $Revision: $
+ */
+public class ServerConnectionTest
+{
+
+   //----------------------------------------------------------------------------------||
+   // Tests ---------------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   /**
+    * Tests that concurrent callers share a single lookup
+    */
+   @Test
+   public void testConcurrentCallersShareOneLookup() throws Exception
+   {
+      final FakeNaming naming = new FakeNaming();
+      naming.gate = new CountDownLatch(1);
+      final Server server = newServer(naming);
+
+      ExecutorService pool = Executors.newFixedThreadPool(8);
+      try
+      {
+         List<Future<MBeanServerConnection>> results = new ArrayList<Future<MBeanServerConnection>>();
+         for (int i = 0; i < 8; i++)
+         {
+            results.add(pool.submit(new Callable<MBeanServerConnection>()
+            {
+               public MBeanServerConnection call() throws Exception
+               {
+                  return server.getServerConnection();
+               }
+            }));
+         }
+         TestCase.assertTrue("No lookup started", naming.entered.await(5, TimeUnit.SECONDS));
+         Thread.sleep(200);
+         naming.gate.countDown();
+
+         MBeanServerConnection first = results.get(0).get(5, TimeUnit.SECONDS);
+         for (Future<MBeanServerConnection> result : results)
+         {
+            TestCase.assertSame(first, result.get(5, TimeUnit.SECONDS));
+         }
+         TestCase.assertEquals(1, naming.lookups.get());
+      }
+      finally
+      {
+         pool.shutdownNow();
+      }
+   }
+
+   /**
+    * Tests that a connection failing its validation is replaced by one lookup
+    */
+   @Test
+   public void testFailedValidationLooksUpOnce() throws Exception
+   {
+      FakeNaming naming = new FakeNaming();
+      Server server = newServer(naming);
+      server.setConnectionValidationInterval(0);
+
+      FakeConnection stale = new FakeConnection();
+      stale.broken = true;
+      server.setServerConnection(stale.proxy);
+
+      MBeanServerConnection fresh = server.getServerConnection();
+      TestCase.assertNotSame(stale.proxy, fresh);
+      TestCase.assertEquals(1, stale.counts.get());
+      TestCase.assertEquals(1, naming.lookups.get());
+
+      // the new connection passes its validation, no further lookup
+      TestCase.assertSame(fresh, server.getServerConnection());
+      TestCase.assertEquals(1, naming.lookups.get());
+      TestCase.assertEquals(1, naming.handedOut.get(0).counts.get());
+   }
+
+   /**
+    * Tests that a connection is trusted within the validation interval
+    */
+   @Test
+   public void testTrustedWithinInterval() throws Exception
+   {
+      FakeNaming naming = new FakeNaming();
+      Server server = newServer(naming);
+      server.setConnectionValidationInterval(60000);
+
+      MBeanServerConnection connection = server.getServerConnection();
+      TestCase.assertSame(connection, server.getServerConnection());
+      TestCase.assertEquals(1, naming.lookups.get());
+      TestCase.assertEquals(0, naming.handedOut.get(0).counts.get());
+   }
+
+   /**
+    * Tests that a call failing with an IOException drops the connection
+    */
+   @Test
+   public void testInvalidateAfterIOException() throws Exception
+   {
+      FakeNaming naming = new FakeNaming();
+      Server server = newServer(naming);
+      server.setConnectionValidationInterval(60000);
+
+      MBeanServerConnection first = server.getServerConnection();
+      naming.handedOut.get(0).broken = true;
+      try
+      {
+         server.invoke(new ObjectName("test:name=Fake"), "noop", null, null);
+         TestCase.fail("Call through a broken connection succeeded");
+      }
+      catch (IOException e)
+      {
+         // expected
+      }
+
+      MBeanServerConnection second = server.getServerConnection();
+      TestCase.assertNotSame(first, second);
+      TestCase.assertEquals(2, naming.lookups.get());
+   }
+
+   //----------------------------------------------------------------------------------||
+   // Internal Helper Methods ---------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   private static Server newServer(FakeNaming naming)
+   {
+      Server server = new Server();
+      server.setName("fake");
+      server.setNamingContext(naming.proxy);
+      return server;
+   }
+
+   /**
+    * A naming context whose lookups hand out new fake connections.
+    */
+   private static class FakeNaming implements InvocationHandler
+   {
+      final Context proxy = (Context) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]
+      {Context.class}, this);
+
+      final AtomicInteger lookups = new AtomicInteger();
+
+      final List<FakeConnection> handedOut = new ArrayList<FakeConnection>();
+
+      final CountDownLatch entered = new CountDownLatch(1);
+
+      /** holds the lookups up while not null and closed **/
+      volatile CountDownLatch gate;
+
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+      {
+         if (!method.getName().equals("lookup"))
+         {
+            return null;
+         }
+         lookups.incrementAndGet();
+         entered.countDown();
+         if (gate != null)
+         {
+            gate.await();
+         }
+         FakeConnection connection = new FakeConnection();
+         synchronized (handedOut)
+         {
+            handedOut.add(connection);
+         }
+         return connection.proxy;
+      }
+   }
+
+   /**
+    * A connection counting its validations, whose calls fail once broken.
+    */
+   private static class FakeConnection implements InvocationHandler
+   {
+      final MBeanServerConnection proxy = (MBeanServerConnection) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] {MBeanServerConnection.class}, this);
+
+      final AtomicInteger counts = new AtomicInteger();
+
+      volatile boolean broken;
+
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+      {
+         if (method.getDeclaringClass() == Object.class)
+         {
+            return method.invoke(this, args);
+         }
+         if (method.getName().equals("getMBeanCount"))
+         {
+            counts.incrementAndGet();
+         }
+         if (broken)
+         {
+            throw new IOException("Connection refused");
+         }
+         return method.getName().equals("getMBeanCount") ? Integer.valueOf(1) : null;
+      }
+   }
+}
@@ -0,0 +1,177 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.jbossas.servermanager.test.jmxinvocation.unit;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.jboss.jbossas.servermanager.JmxCalls;
+import org.junit.Test;
+
+/**
+ * JmxCallsTest
+ * 
+ * Checks that remote calls are given up at their deadline, and that
+ * an abandoned call is interrupted.
+ *
+ * @version $Revision: $
+ */
+public class JmxCallsTest
+{
+
+   //----------------------------------------------------------------------------------||
+   // Tests ---------------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   /**
+    * Tests that a call within its deadline returns its result
+    */
+   @Test
+   public void testResult() throws Exception
+   {
+      TestCase.assertEquals("result", JmxCalls.call("Quick call", 5000, new Callable<String>()
+      {
+         public String call()
+         {
+            return "result";
+         }
+      }));
+   }
+
+   /**
+    * Tests that what a call throws reaches the caller as is
+    */
+   @Test
+   public void testFailure() throws Exception
+   {
+      final IOException failure = new IOException("refused");
+      try
+      {
+         JmxCalls.call("Failing call", 5000, new Callable<Object>()
+         {
+            public Object call() throws IOException
+            {
+               throw failure;
+            }
+         });
+         TestCase.fail("Failure not passed on");
+      }
+      catch (IOException e)
+      {
+         TestCase.assertSame(failure, e);
+      }
+   }
+
+   /**
+    * Tests that a call past its deadline is abandoned and interrupted
+    */
+   @Test
+   public void testTimeout() throws Exception
+   {
+      final CountDownLatch interrupted = new CountDownLatch(1);
+      long begin = System.nanoTime();
+      try
+      {
+         JmxCalls.call("Wedged call", 200, wedged(new CountDownLatch(1), interrupted));
+         TestCase.fail("Wedged call returned");
+      }
+      catch (InterruptedIOException e)
+      {
+         TestCase.assertTrue(e.getMessage(), e.getMessage().startsWith("Wedged call did not complete within 200 ms"));
+      }
+      TestCase.assertTrue("Waited past the deadline", System.nanoTime() - begin < TimeUnit.SECONDS.toNanos(5));
+      TestCase.assertTrue("Abandoned call not interrupted", interrupted.await(5, TimeUnit.SECONDS));
+      TestCase.assertFalse(Thread.currentThread().isInterrupted());
+   }
+
+   /**
+    * Tests that an interrupted caller gives up the call and keeps its interrupt
+    */
+   @Test
+   public void testCallerInterrupted() throws Exception
+   {
+      final CountDownLatch started = new CountDownLatch(1);
+      final CountDownLatch interrupted = new CountDownLatch(1);
+      final Thread caller = Thread.currentThread();
+      new Thread()
+      {
+         public void run()
+         {
+            try
+            {
+               started.await();
+               caller.interrupt();
+            }
+            catch (InterruptedException e)
+            {
+               // the test fails on its own
+            }
+         }
+      }.start();
+      try
+      {
+         JmxCalls.call("Wedged call", 60000, wedged(started, interrupted));
+         TestCase.fail("Wedged call returned");
+      }
+      catch (InterruptedIOException e)
+      {
+         // expected
+      }
+      finally
+      {
+         TestCase.assertTrue("Interrupt not kept", Thread.interrupted());
+      }
+      TestCase.assertTrue("Abandoned call not interrupted", interrupted.await(5, TimeUnit.SECONDS));
+   }
+
+   //----------------------------------------------------------------------------------||
+   // Internal Helper Methods ---------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   /**
+    * A call which only returns once interrupted.
+    */
+   private static Callable<Object> wedged(final CountDownLatch started, final CountDownLatch interrupted)
+   {
+      return new Callable<Object>()
+      {
+         public Object call()
+         {
+            started.countDown();
+            try
+            {
+               Thread.sleep(TimeUnit.MINUTES.toMillis(10));
+            }
+            catch (InterruptedException e)
+            {
+               interrupted.countDown();
+            }
+            return null;
+         }
+      };
+   }
+}
@@ -0,0 +1,236 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.jbossas.servermanager.test.lifecycle.unit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.jboss.jbossas.servermanager.ReadinessProbe;
+import org.jboss.jbossas.servermanager.Server;
+import org.jboss.jbossas.servermanager.ServerController;
+import org.jboss.jbossas.servermanager.ServerLifecycleEvent;
+import org.jboss.jbossas.servermanager.ServerManager;
+import org.jboss.jbossas.servermanager.ServerShutdownException;
+import org.jboss.jbossas.servermanager.ServerStartupException;
+import org.jboss.jbossas.servermanager.test.common.FakeJBossHome;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * LifecycleEventsTest
+ * 
+ * Checks that KILLED is only published for a server whose processes had
+ * to be destroyed.
+ *
+ * @version $Revision: $
+ */
+public class LifecycleEventsTest
+{
+
+   //----------------------------------------------------------------------------------||
+   // Class Members -------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   /** how long (in seconds) to wait for an event **/
+   private static final int EVENT_TIMEOUT = 10;
+
+   //----------------------------------------------------------------------------------||
+   // Instance Members ----------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   private FakeJBossHome home;
+
+   private ServerManager manager;
+
+   private Server server;
+
+   /** the events received so far **/
+   private final BlockingQueue<ServerLifecycleEvent> events = new LinkedBlockingQueue<ServerLifecycleEvent>();
+
+   //----------------------------------------------------------------------------------||
+   // Lifecycle -----------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   @Before
+   public void before() throws IOException
+   {
+      home = new FakeJBossHome();
+      manager = new ServerManager()
+      {
+         public int getStartupTimeout()
+         {
+            return 2;
+         }
+
+         public int getKillGracePeriod()
+         {
+            return 1;
+         }
+      };
+      home.apply(manager);
+      server = new Server();
+      server.setName("fake");
+      server.setHost("127.0.0.1");
+      server.setConfig("default");
+      manager.addServer(server);
+
+      manager.getLifecycleEvents().subscribe(new Flow.Subscriber<ServerLifecycleEvent>()
+      {
+         public void onSubscribe(Flow.Subscription subscription)
+         {
+            subscription.request(Long.MAX_VALUE);
+         }
+
+         public void onNext(ServerLifecycleEvent event)
+         {
+            events.add(event);
+         }
+
+         public void onError(Throwable throwable)
+         {
+         }
+
+         public void onComplete()
+         {
+         }
+      });
+   }
+
+   @After
+   public void after() throws IOException
+   {
+      if (server.isRunning())
+      {
+         try
+         {
+            ServerController.stopServer(server, manager);
+         }
+         catch (ServerShutdownException e)
+         {
+            // there is nothing to shut it down cleanly
+         }
+      }
+      home.delete();
+   }
+
+   //----------------------------------------------------------------------------------||
+   // Tests ---------------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   /**
+    * Tests that a start given up on kills the server
+    */
+   @Test
+   public void testKilledOnAbortedStart() throws Exception
+   {
+      server.setReadinessProbe(new Ready(false));
+      try
+      {
+         ServerController.startServer(server, manager);
+         TestCase.fail("Server started although it never became ready");
+      }
+      catch (ServerStartupException e)
+      {
+         // expected
+      }
+
+      List<ServerLifecycleEvent.Type> seen = awaitEvent(ServerLifecycleEvent.Type.KILLED);
+      TestCase.assertTrue(seen.toString(), seen.contains(ServerLifecycleEvent.Type.TIMED_OUT));
+   }
+
+   /**
+    * Tests that a server whose process already exited is not reported killed
+    * when its stop has nothing left to destroy
+    */
+   @Test
+   public void testNotKilledOnceExited() throws Exception
+   {
+      server.setReadinessProbe(new Ready(true));
+      ServerController.startServer(server, manager);
+      Process process = server.getProcess();
+      process.destroyForcibly();
+      process.waitFor();
+      awaitEvent(ServerLifecycleEvent.Type.EXITED);
+
+      try
+      {
+         ServerController.stopServer(server, manager);
+         TestCase.fail("Server stopped cleanly without a way to shut it down");
+      }
+      catch (ServerShutdownException e)
+      {
+         // expected, the process is destroyed after a failed shutdown
+      }
+
+      // anything the stop published is delivered before the next launch
+      ServerController.startServer(server, manager);
+      List<ServerLifecycleEvent.Type> seen = awaitEvent(ServerLifecycleEvent.Type.LAUNCHED);
+      TestCase.assertFalse(seen.toString(), seen.contains(ServerLifecycleEvent.Type.KILLED));
+   }
+
+   //----------------------------------------------------------------------------------||
+   // Internal Helper Methods ---------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   /**
+    * Take events up to and including one of a type.
+    *
+    * @return the types of the events taken
+    */
+   private List<ServerLifecycleEvent.Type> awaitEvent(ServerLifecycleEvent.Type type) throws InterruptedException
+   {
+      List<ServerLifecycleEvent.Type> seen = new ArrayList<ServerLifecycleEvent.Type>();
+      while (true)
+      {
+         ServerLifecycleEvent event = events.poll(EVENT_TIMEOUT, TimeUnit.SECONDS);
+         TestCase.assertNotNull("No " + type + " event after " + seen, event);
+         seen.add(event.getType());
+         if (event.getType() == type)
+         {
+            return seen;
+         }
+      }
+   }
+
+   private static class Ready implements ReadinessProbe
+   {
+      private final boolean ready;
+
+      Ready(boolean ready)
+      {
+         this.ready = ready;
+      }
+
+      public boolean isReady(Server server)
+      {
+         return ready;
+      }
+   }
+}
@@ -0,0 +1,155 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.jbossas.servermanager.test.log.unit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import junit.framework.TestCase;
+
+import org.jboss.jbossas.servermanager.AsyncLogWriter;
+import org.jboss.jbossas.servermanager.LogQuery;
+import org.jboss.jbossas.servermanager.LogRoller;
+import org.jboss.jbossas.servermanager.test.common.TempDirs;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * AsyncLogWriterTest
+ * 
+ * Checks what the batching log writer puts in the log and its index,
+ * and that the index follows the log when it is rolled.
+ *
+ * @version $Revision: $
+ */
+public class AsyncLogWriterTest
+{
+
+   //----------------------------------------------------------------------------------||
+   // Instance Members ----------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   private ScheduledExecutorService flusher;
+
+   private File dir;
+
+   private File log;
+
+   private File index;
+
+   //----------------------------------------------------------------------------------||
+   // Lifecycle -----------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   @Before
+   public void before() throws IOException
+   {
+      flusher = Executors.newSingleThreadScheduledExecutor();
+      dir = TempDirs.create("asynclogwriter");
+      log = new File(dir, "output.log");
+      index = new File(dir, "output.log.idx");
+   }
+
+   @After
+   public void after()
+   {
+      flusher.shutdownNow();
+      TempDirs.delete(dir);
+   }
+
+   //----------------------------------------------------------------------------------||
+   // Tests ---------------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   /**
+    * Tests that every line is written, and that WARN lines are indexed at their offsets
+    */
+   @Test
+   public void testWriteAndIndex() throws IOException
+   {
+      AsyncLogWriter writer = new AsyncLogWriter(log, index, 0, 0, new LogRoller(LogRollerTest.DIRECT), flusher);
+      writer.write("10:00:00 INFO  one\n");
+      writer.write("10:00:00 WARN  two\n10:00:00 INFO  three\n");
+      writer.close();
+
+      String text = new String(Files.readAllBytes(log.toPath()), "UTF-8");
+      TestCase.assertEquals("10:00:00 INFO  one\n10:00:00 WARN  two\n10:00:00 INFO  three\n", text);
+
+      long warn = -1;
+      for (ByteBuffer record : records())
+      {
+         long offset = record.getLong(0);
+         TestCase.assertTrue("Record not at a line start: " + offset, offset == 0 || text.charAt((int) offset - 1) == '\n');
+         if (record.get(16) == LogQuery.Level.WARN.code())
+         {
+            warn = offset;
+         }
+      }
+      TestCase.assertEquals(text.indexOf("10:00:00 WARN"), warn);
+      TestCase.assertEquals(Arrays.asList("10:00:00 WARN  two"), new LogQuery(log, index).lines(LogQuery.Level.WARN));
+   }
+
+   /**
+    * Tests that a log over its cap is rolled, and that the index is
+    * restarted with offsets into the new file
+    */
+   @Test
+   public void testRoll() throws IOException
+   {
+      AsyncLogWriter writer = new AsyncLogWriter(log, index, 40, 2, new LogRoller(LogRollerTest.DIRECT), flusher);
+      writer.write("10:00:00 WARN  first segment line\n");
+      writer.flush();
+      writer.write("10:00:01 ERROR second segment line\n");
+      writer.close();
+
+      TestCase.assertEquals("10:00:00 WARN  first segment line\n", LogRollerTest.gunzip(LogRoller.generation(log, 1)));
+      TestCase.assertEquals("10:00:01 ERROR second segment line\n", new String(Files.readAllBytes(log.toPath()), "UTF-8"));
+
+      ByteBuffer[] records = records();
+      TestCase.assertEquals(1, records.length);
+      TestCase.assertEquals(0, records[0].getLong(0));
+      TestCase.assertEquals(Arrays.asList("10:00:01 ERROR second segment line"),
+            new LogQuery(log, index).lines(LogQuery.Level.WARN));
+   }
+
+   //----------------------------------------------------------------------------------||
+   // Internal Helper Methods ---------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   private ByteBuffer[] records() throws IOException
+   {
+      byte[] bytes = Files.readAllBytes(index.toPath());
+      TestCase.assertEquals("Partial index record", 0, bytes.length % LogQuery.RECORD_SIZE);
+      ByteBuffer[] records = new ByteBuffer[bytes.length / LogQuery.RECORD_SIZE];
+      for (int i = 0; i < records.length; i++)
+      {
+         records[i] = ByteBuffer.wrap(bytes, i * LogQuery.RECORD_SIZE, LogQuery.RECORD_SIZE).slice();
+      }
+      return records;
+   }
+}
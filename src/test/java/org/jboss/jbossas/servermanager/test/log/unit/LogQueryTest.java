@@ -0,0 +1,151 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.jbossas.servermanager.test.log.unit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.jboss.jbossas.servermanager.LogQuery;
+import org.jboss.jbossas.servermanager.test.common.TempDirs;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * LogQueryTest
+ * 
+ * Checks time and level queries against a hand written log and index.
+ *
+ * @version $Revision: $
+ */
+public class LogQueryTest
+{
+
+   //----------------------------------------------------------------------------------||
+   // Instance Members ----------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   private File dir;
+
+   private LogQuery query;
+
+   //----------------------------------------------------------------------------------||
+   // Lifecycle -----------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   /**
+    * Writes lines captured at 1.0 s, 1.5 s, 5.2 s (WARN), 5.7 s and 7.0 s,
+    * indexed the way AsyncLogWriter indexes them
+    */
+   @Before
+   public void before() throws IOException
+   {
+      dir = TempDirs.create("logquery");
+      File log = new File(dir, "output.log");
+      File index = new File(dir, "output.log.idx");
+
+      OutputStream logOut = new FileOutputStream(log);
+      OutputStream indexOut = new FileOutputStream(index);
+      try
+      {
+         long offset = 0;
+         offset = line(logOut, indexOut, offset, "10:00:01 INFO  first", 1000, LogQuery.Level.INFO, true);
+         offset = line(logOut, indexOut, offset, "10:00:01 DEBUG same second", 1500, LogQuery.Level.DEBUG, false);
+         offset = line(logOut, indexOut, offset, "10:00:05 WARN  warned", 5200, LogQuery.Level.WARN, true);
+         offset = line(logOut, indexOut, offset, "10:00:05 INFO  after the warning", 5700, LogQuery.Level.INFO, false);
+         offset = line(logOut, indexOut, offset, "10:00:07 ERROR failed", 7000, LogQuery.Level.ERROR, true);
+      }
+      finally
+      {
+         logOut.close();
+         indexOut.close();
+      }
+      query = new LogQuery(log, index);
+   }
+
+   @After
+   public void after()
+   {
+      TempDirs.delete(dir);
+   }
+
+   //----------------------------------------------------------------------------------||
+   // Tests ---------------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   /**
+    * Tests that a time range holds the lines of its seconds only, not
+    * those of an earlier checkpoint
+    */
+   @Test
+   public void testTimeRange() throws IOException
+   {
+      TestCase.assertEquals(Arrays.asList("10:00:05 WARN  warned", "10:00:05 INFO  after the warning"),
+            query.lines(5000, 6000));
+      TestCase.assertEquals(Arrays.asList("10:00:05 WARN  warned", "10:00:05 INFO  after the warning"),
+            query.lines(5500, 6000));
+      TestCase.assertTrue(query.lines(2000, 5000).isEmpty());
+      TestCase.assertTrue(query.lines(8000, 9000).isEmpty());
+      TestCase.assertEquals(5, query.lines(0, Long.MAX_VALUE).size());
+   }
+
+   /**
+    * Tests level queries, with and without a time range
+    */
+   @Test
+   public void testLevel() throws IOException
+   {
+      TestCase.assertEquals(Arrays.asList("10:00:05 WARN  warned", "10:00:07 ERROR failed"),
+            query.lines(LogQuery.Level.WARN));
+      TestCase.assertEquals(Arrays.asList("10:00:07 ERROR failed"), query.lines(LogQuery.Level.ERROR));
+      TestCase.assertEquals(Arrays.asList("10:00:01 INFO  first", "10:00:05 WARN  warned",
+            "10:00:05 INFO  after the warning", "10:00:07 ERROR failed"), query.lines(LogQuery.Level.INFO));
+      TestCase.assertEquals(Arrays.asList("10:00:05 WARN  warned", "10:00:05 INFO  after the warning"),
+            query.lines(LogQuery.Level.INFO, 5000, 6000));
+      TestCase.assertTrue(query.lines(LogQuery.Level.WARN, 1000, 2000).isEmpty());
+   }
+
+   //----------------------------------------------------------------------------------||
+   // Internal Helper Methods ---------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   private static long line(OutputStream log, OutputStream index, long offset, String line, long time,
+         LogQuery.Level level, boolean indexed) throws IOException
+   {
+      byte[] bytes = (line + "\n").getBytes(Charset.defaultCharset());
+      log.write(bytes);
+      if (indexed)
+      {
+         ByteBuffer record = ByteBuffer.allocate(LogQuery.RECORD_SIZE);
+         record.putLong(offset).putLong(time).put(level.code());
+         index.write(record.array());
+      }
+      return offset + bytes.length;
+   }
+}
@@ -0,0 +1,197 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.jbossas.servermanager.test.log.unit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+
+import org.jboss.jbossas.servermanager.LogRoller;
+import org.jboss.jbossas.servermanager.test.common.TempDirs;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * LogRollerTest
+ * 
+ * Checks that rolled logs are shifted through their compressed generations.
+ *
+ * @version $Revision: $
+ */
+public class LogRollerTest
+{
+
+   //----------------------------------------------------------------------------------||
+   // Class Members -------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   /** compresses in the calling thread **/
+   static final Executor DIRECT = new Executor()
+   {
+      public void execute(Runnable command)
+      {
+         command.run();
+      }
+   };
+
+   //----------------------------------------------------------------------------------||
+   // Instance Members ----------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   private File dir;
+
+   //----------------------------------------------------------------------------------||
+   // Lifecycle -----------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   @Before
+   public void before() throws IOException
+   {
+      dir = TempDirs.create("logroller");
+   }
+
+   @After
+   public void after()
+   {
+      TempDirs.delete(dir);
+   }
+
+   //----------------------------------------------------------------------------------||
+   // Tests ---------------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   /**
+    * Tests that the newest roll is generation 1 and the oldest beyond the limit is dropped
+    */
+   @Test
+   public void testGenerations() throws IOException
+   {
+      File log = new File(dir, "output.log");
+      LogRoller roller = new LogRoller(DIRECT);
+
+      for (int i = 1; i <= 3; i++)
+      {
+         write(log, "segment " + i + "\n");
+         roller.roll(log, 2);
+         TestCase.assertFalse("Log still in place after roll " + i, log.exists());
+      }
+
+      TestCase.assertEquals("segment 3\n", gunzip(LogRoller.generation(log, 1)));
+      TestCase.assertEquals("segment 2\n", gunzip(LogRoller.generation(log, 2)));
+      TestCase.assertFalse(LogRoller.generation(log, 3).exists());
+      TestCase.assertEquals("Segments left behind", 2, dir.list().length);
+   }
+
+   /**
+    * Tests that an empty log is not rolled
+    */
+   @Test
+   public void testEmpty() throws IOException
+   {
+      File log = new File(dir, "output.log");
+      write(log, "");
+      new LogRoller(DIRECT).roll(log, 2);
+
+      TestCase.assertTrue(log.exists());
+      TestCase.assertFalse(LogRoller.generation(log, 1).exists());
+   }
+
+   /**
+    * Tests that a segment left by an earlier JVM is not overwritten by a new roll
+    */
+   @Test
+   public void testLeftoverSegmentKept() throws IOException
+   {
+      File log = new File(dir, "output.log");
+      File leftover = new File(dir, "output.log.1.rolling");
+      write(leftover, "crashed\n");
+      write(log, "current\n");
+
+      final List<Runnable> queued = new ArrayList<Runnable>();
+      new LogRoller(new Executor()
+      {
+         public void execute(Runnable command)
+         {
+            queued.add(command);
+         }
+      }).roll(log, 2);
+
+      TestCase.assertEquals("crashed\n", new String(Files.readAllBytes(leftover.toPath()), "UTF-8"));
+      TestCase.assertEquals(1, queued.size());
+   }
+
+   /**
+    * Tests that segments an earlier JVM did not compress are archived oldest
+    * first, and partial compressed copies are dropped
+    */
+   @Test
+   public void testRecover() throws IOException
+   {
+      File log = new File(dir, "output.log");
+      File older = new File(dir, "output.log.1.rolling");
+      write(older, "older\n");
+      older.setLastModified(System.currentTimeMillis() - 60000);
+      File newer = new File(dir, "output.log.2.rolling");
+      write(newer, "newer\n");
+      write(new File(dir, "output.log.2.rolling.gz"), "truncated");
+
+      LogRoller roller = new LogRoller(DIRECT);
+      roller.recover(log, 3);
+      write(log, "current\n");
+      roller.roll(log, 3);
+
+      TestCase.assertEquals("current\n", gunzip(LogRoller.generation(log, 1)));
+      TestCase.assertEquals("newer\n", gunzip(LogRoller.generation(log, 2)));
+      TestCase.assertEquals("older\n", gunzip(LogRoller.generation(log, 3)));
+      TestCase.assertEquals("Segments left behind", 3, dir.list().length);
+   }
+
+   //----------------------------------------------------------------------------------||
+   // Internal Helper Methods ---------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   static void write(File file, String text) throws IOException
+   {
+      Files.write(file.toPath(), text.getBytes("UTF-8"));
+   }
+
+   static String gunzip(File file) throws IOException
+   {
+      InputStream in = new GZIPInputStream(Files.newInputStream(file.toPath()));
+      try
+      {
+         return new String(in.readAllBytes(), "UTF-8");
+      }
+      finally
+      {
+         in.close();
+      }
+   }
+}
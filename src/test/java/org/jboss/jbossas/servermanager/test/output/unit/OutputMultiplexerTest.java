@@ -0,0 +1,292 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.jbossas.servermanager.test.output.unit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.jboss.jbossas.servermanager.OutputListener;
+import org.jboss.jbossas.servermanager.OutputMultiplexer;
+import org.jboss.jbossas.servermanager.Server;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * OutputMultiplexerTest
+ * 
+ * Checks that the shared output readers hand on every line of every
+ * process, and that no stream can hold up the others.
+ *
+ * @version $Revision: $
+ */
+public class OutputMultiplexerTest
+{
+
+   //----------------------------------------------------------------------------------||
+   // Instance Members ----------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   private final List<String> lines = new CopyOnWriteArrayList<String>();
+
+   private final List<Process> processes = new ArrayList<Process>();
+
+   private final OutputMultiplexer multiplexer = new OutputMultiplexer(1, Collections.<OutputListener>singletonList(
+         new OutputListener()
+         {
+            public void outputLine(Server server, String line, boolean error)
+            {
+               lines.add(server.getName() + (error ? " err: " : ": ") + line);
+            }
+         }));
+
+   //----------------------------------------------------------------------------------||
+   // Lifecycle -----------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   @After
+   public void after()
+   {
+      for (Process process : processes)
+      {
+         for (Object descendant : process.descendants().toArray())
+         {
+            ((ProcessHandle) descendant).destroyForcibly();
+         }
+         process.destroyForcibly();
+      }
+   }
+
+   //----------------------------------------------------------------------------------||
+   // Tests ---------------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   /**
+    * Tests that the last lines of an exited process are read, although
+    * a descendant it left behind keeps its pipe open
+    */
+   @Test
+   public void testSurvivingDescendant() throws Exception
+   {
+      Server server = newServer("a");
+      Process process = start(server, "echo first; sleep 30 & echo last");
+      TestCase.assertTrue("Process did not exit", process.waitFor(10, TimeUnit.SECONDS));
+
+      long begin = System.nanoTime();
+      multiplexer.detach(server, 2000);
+      TestCase.assertTrue("Detach waited past its deadline", System.nanoTime() - begin < TimeUnit.SECONDS.toNanos(3));
+      TestCase.assertEquals(Arrays.asList("a: first", "a: last"), lines);
+   }
+
+   /**
+    * Tests that the pipe of an exited process which never reaches its
+    * end holds up neither the detach nor the other streams of its reader
+    */
+   @Test
+   public void testOpenPipeOfExitedProcess() throws Exception
+   {
+      PipedOutputStream pipe = new PipedOutputStream();
+      Server stuck = newServer("stuck");
+      multiplexer.attach(stuck, new ExitedProcess(new PipedInputStream(pipe)), new PrintWriter(new StringWriter()),
+            new PrintWriter(new StringWriter()));
+      pipe.write("last\n".getBytes(StandardCharsets.UTF_8));
+      awaitLine("stuck: last");
+
+      Server other = newServer("other");
+      start(other, "sleep 1; echo alive");
+      awaitLine("other: alive");
+
+      long begin = System.nanoTime();
+      multiplexer.detach(stuck, 500);
+      TestCase.assertTrue("Detach waited past its deadline", System.nanoTime() - begin < TimeUnit.SECONDS.toNanos(2));
+      pipe.close();
+   }
+
+   /**
+    * Tests that lines are split at newlines, without their carriage
+    * returns, on both streams, and that an unterminated last line is
+    * handed on when the stream ends
+    */
+   @Test
+   public void testLineAssembly() throws Exception
+   {
+      Server server = newServer("a");
+      StringWriter outlog = new StringWriter();
+      StringWriter errorlog = new StringWriter();
+      multiplexer.attach(server, new ExitedProcess(bytes("one\r\ntwo\n\nlast"), bytes("failed\n")),
+            new PrintWriter(outlog, true), new PrintWriter(errorlog, true));
+      multiplexer.detach(server, 5000);
+
+      List<String> out = new ArrayList<String>();
+      List<String> err = new ArrayList<String>();
+      for (String line : lines)
+      {
+         (line.startsWith("a err: ") ? err : out).add(line);
+      }
+      TestCase.assertEquals(Arrays.asList("a: one", "a: two", "a: ", "a: last"), out);
+      TestCase.assertEquals(Arrays.asList("a err: failed"), err);
+      String separator = System.getProperty("line.separator");
+      TestCase.assertEquals("one" + separator + "two" + separator + separator + "last" + separator, outlog.toString());
+      TestCase.assertEquals("failed" + separator, errorlog.toString());
+   }
+
+   /**
+    * Tests that a line too long to assemble is handed on in pieces
+    */
+   @Test
+   public void testLongLine() throws Exception
+   {
+      char[] longLine = new char[100 * 1024];
+      Arrays.fill(longLine, 'x');
+      Server server = newServer("a");
+      multiplexer.attach(server, new ExitedProcess(bytes(new String(longLine) + "\nnext\n"), bytes("")),
+            new PrintWriter(new StringWriter()), new PrintWriter(new StringWriter()));
+      multiplexer.detach(server, 5000);
+
+      TestCase.assertTrue("Line not split: " + lines.size() + " lines", lines.size() > 2);
+      StringBuilder joined = new StringBuilder();
+      for (String line : lines.subList(0, lines.size() - 1))
+      {
+         joined.append(line.substring("a: ".length()));
+      }
+      TestCase.assertEquals(new String(longLine), joined.toString());
+      TestCase.assertEquals("a: next", lines.get(lines.size() - 1));
+   }
+
+   /**
+    * Tests that detach returns once the streams are read to their end, and
+    * that output of the next process of the server is read again
+    */
+   @Test
+   public void testDetachThenAttach() throws Exception
+   {
+      Server server = newServer("a");
+      multiplexer.attach(server, new ExitedProcess(bytes("first run\n"), bytes("")),
+            new PrintWriter(new StringWriter()), new PrintWriter(new StringWriter()));
+      multiplexer.detach(server, 5000);
+      TestCase.assertEquals(Arrays.asList("a: first run"), lines);
+
+      multiplexer.attach(server, new ExitedProcess(bytes("second run\n"), bytes("")),
+            new PrintWriter(new StringWriter()), new PrintWriter(new StringWriter()));
+      multiplexer.detach(server, 5000);
+      TestCase.assertEquals(Arrays.asList("a: first run", "a: second run"), lines);
+   }
+
+   //----------------------------------------------------------------------------------||
+   // Internal Helper Methods ---------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   private static InputStream bytes(String text)
+   {
+      return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+   }
+
+   private Process start(Server server, String script) throws IOException
+   {
+      Process process = new ProcessBuilder("sh", "-c", script).start();
+      processes.add(process);
+      multiplexer.attach(server, process, new PrintWriter(new StringWriter()), new PrintWriter(new StringWriter()));
+      return process;
+   }
+
+   private void awaitLine(String line) throws InterruptedException
+   {
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      while (!lines.contains(line))
+      {
+         TestCase.assertTrue("No line \"" + line + "\" in " + lines, System.nanoTime() - deadline < 0);
+         Thread.sleep(20);
+      }
+   }
+
+   private static Server newServer(String name)
+   {
+      Server server = new Server();
+      server.setName(name);
+      return server;
+   }
+
+   /**
+    * A process that has exited, but whose output pipe is still held open.
+    */
+   private static class ExitedProcess extends Process
+   {
+      private final InputStream in;
+
+      private final InputStream err;
+
+      ExitedProcess(InputStream in)
+      {
+         this(in, new ByteArrayInputStream(new byte[0]));
+      }
+
+      ExitedProcess(InputStream in, InputStream err)
+      {
+         this.in = in;
+         this.err = err;
+      }
+
+      public OutputStream getOutputStream()
+      {
+         return new ByteArrayOutputStream();
+      }
+
+      public InputStream getInputStream()
+      {
+         return in;
+      }
+
+      public InputStream getErrorStream()
+      {
+         return err;
+      }
+
+      public int waitFor()
+      {
+         return 0;
+      }
+
+      public int exitValue()
+      {
+         return 0;
+      }
+
+      public void destroy()
+      {
+      }
+   }
+}
@@ -0,0 +1,129 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.jbossas.servermanager.test.output.unit;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.jboss.jbossas.servermanager.OutputRingBuffer;
+import org.junit.Test;
+
+/**
+ * OutputRingBufferTest
+ * 
+ * Checks that the output ring buffer keeps the newest lines
+ * within its fixed capacity.
+ *
+ * @version $Revision: $
+ */
+public class OutputRingBufferTest
+{
+
+   //----------------------------------------------------------------------------------||
+   // Tests ---------------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   /**
+    * Tests that the newest lines are returned oldest first
+    */
+   @Test
+   public void testTail()
+   {
+      OutputRingBuffer buffer = new OutputRingBuffer(1024);
+      buffer.add("one");
+      buffer.add("two");
+      buffer.add("three");
+
+      TestCase.assertEquals(Arrays.asList("two", "three"), buffer.tail(2));
+      TestCase.assertEquals(Arrays.asList("one", "two", "three"), buffer.tail(10));
+   }
+
+   /**
+    * Tests that the oldest lines are dropped once the buffer wraps
+    */
+   @Test
+   public void testWrap()
+   {
+      OutputRingBuffer buffer = new OutputRingBuffer(100);
+      for (int i = 0; i < 1000; i++)
+      {
+         buffer.add("line " + i);
+      }
+
+      List<String> tail = buffer.tail(1000);
+      TestCase.assertTrue("Buffer holds more than fits", tail.size() * 14 <= 100);
+      TestCase.assertEquals("line 999", tail.get(tail.size() - 1));
+      TestCase.assertEquals("line " + (1000 - tail.size()), tail.get(0));
+   }
+
+   /**
+    * Tests multi-byte characters and lines longer than the buffer
+    */
+   @Test
+   public void testEncodingAndTruncation()
+   {
+      OutputRingBuffer buffer = new OutputRingBuffer(32);
+      buffer.add("café");
+      TestCase.assertEquals(Arrays.asList("café"), buffer.tail(1));
+
+      StringBuilder longLine = new StringBuilder();
+      for (int i = 0; i < 100; i++)
+      {
+         longLine.append('x');
+      }
+      buffer.add(longLine.toString());
+      TestCase.assertEquals(1, buffer.size());
+      TestCase.assertEquals(24, buffer.tail(1).get(0).length());
+
+      buffer.clear();
+      TestCase.assertTrue(buffer.tail(1).isEmpty());
+   }
+
+   /**
+    * Tests lines encoded in several pieces, across the wrap and truncated
+    */
+   @Test
+   public void testLongLines()
+   {
+      StringBuilder longLine = new StringBuilder();
+      for (int i = 0; i < 1500; i++)
+      {
+         longLine.append('\u00e9');
+      }
+
+      OutputRingBuffer buffer = new OutputRingBuffer(4096);
+      for (int i = 0; i < 5; i++)
+      {
+         buffer.add("line " + i);
+         buffer.add(longLine.toString());
+      }
+      TestCase.assertEquals(Arrays.asList("line 4", longLine.toString()), buffer.tail(2));
+
+      buffer = new OutputRingBuffer(2000);
+      buffer.add("short");
+      buffer.add(longLine.toString());
+      TestCase.assertEquals(1, buffer.size());
+      TestCase.assertEquals(longLine.substring(0, 996), buffer.tail(1).get(0));
+   }
+}
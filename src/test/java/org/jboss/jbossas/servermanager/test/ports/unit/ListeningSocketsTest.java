@@ -0,0 +1,107 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.jbossas.servermanager.test.ports.unit;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.jboss.jbossas.servermanager.ListeningSockets;
+import org.junit.Test;
+
+/**
+ * ListeningSocketsTest
+ * 
+ * Checks parsing of the kernel's socket tables and matching of
+ * listeners against the addresses a server binds to.
+ *
+ * @version $Revision: $
+ */
+public class ListeningSocketsTest
+{
+
+   //----------------------------------------------------------------------------------||
+   // Class Members -------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   private static final String TCP =
+        "  sl  local_address rem_address   st tx_queue rx_queue tr tm->when retrnsmt   uid  timeout inode\n"
+      + "   0: 0100007F:044B 00000000:0000 0A 00000000:00000000 00:00000000 00000000  1000        0 4711 1 0000000000000000 100 0 0 10 0\n"
+      + "   1: 00000000:1F90 00000000:0000 0A 00000000:00000000 00:00000000 00000000  1000        0 4712 1 0000000000000000 100 0 0 10 0\n"
+      + "   2: 0100007F:1F90 0100007F:D431 01 00000000:00000000 00:00000000 00000000  1000        0 4713 1 0000000000000000 20 4 30 10 -1\n";
+
+   private static final String TCP6 =
+        "  sl  local_address                         remote_address                        st tx_queue rx_queue tr tm->when retrnsmt   uid  timeout inode\n"
+      + "   0: 00000000000000000000000001000000:1F91 00000000000000000000000000000000:0000 0A 00000000:00000000 00:00000000 00000000  1000        0 4714 1 0000000000000000 100 0 0 10 0\n";
+
+   //----------------------------------------------------------------------------------||
+   // Tests ---------------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   /**
+    * Tests that only listening sockets are read, with their address, port and inode
+    */
+   @Test
+   public void testParse() throws Exception
+   {
+      List<ListeningSockets.Listener> listeners = ListeningSockets.parse(new BufferedReader(new StringReader(TCP)));
+
+      TestCase.assertEquals(2, listeners.size());
+      TestCase.assertEquals(InetAddress.getByName("127.0.0.1"), listeners.get(0).getAddress());
+      TestCase.assertEquals(1099, listeners.get(0).getPort());
+      TestCase.assertEquals(4711, listeners.get(0).getInode());
+      TestCase.assertTrue(listeners.get(1).getAddress().isAnyLocalAddress());
+      TestCase.assertEquals(8080, listeners.get(1).getPort());
+   }
+
+   /**
+    * Tests that IPv6 addresses are read word by word
+    */
+   @Test
+   public void testParseIPv6() throws Exception
+   {
+      List<ListeningSockets.Listener> listeners = ListeningSockets.parse(new BufferedReader(new StringReader(TCP6)));
+
+      TestCase.assertEquals(1, listeners.size());
+      TestCase.assertEquals(InetAddress.getByName("::1"), listeners.get(0).getAddress());
+      TestCase.assertEquals(8081, listeners.get(0).getPort());
+   }
+
+   /**
+    * Tests that wildcard listeners conflict with any address, others only with their own
+    */
+   @Test
+   public void testFind() throws Exception
+   {
+      ListeningSockets sockets = new ListeningSockets(ListeningSockets.parse(new BufferedReader(new StringReader(TCP))));
+      InetAddress[] loopback = new InetAddress[] {InetAddress.getByName("127.0.0.1")};
+      InetAddress[] other = new InetAddress[] {InetAddress.getByName("127.0.0.2")};
+
+      TestCase.assertEquals(1, sockets.find(loopback, 1099).size());
+      TestCase.assertTrue(sockets.find(other, 1099).isEmpty());
+      TestCase.assertEquals(1, sockets.find(other, 8080).size());
+      TestCase.assertTrue(sockets.find(loopback, 8081).isEmpty());
+   }
+}
@@ -0,0 +1,221 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.jbossas.servermanager.test.ports.unit;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.jboss.jbossas.servermanager.PortAllocator;
+import org.jboss.jbossas.servermanager.Server;
+import org.jboss.jbossas.servermanager.ServerManager;
+import org.jboss.jbossas.servermanager.test.common.TempDirs;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * PortAllocatorTest
+ * 
+ * Checks that servers get distinct port offsets whose ports are free.
+ *
+ * @version $Revision: $
+ */
+public class PortAllocatorTest
+{
+
+   //----------------------------------------------------------------------------------||
+   // Instance Members ----------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   /** lock directories created by the test **/
+   private final List<File> lockDirs = new ArrayList<File>();
+
+   //----------------------------------------------------------------------------------||
+   // Lifecycle -----------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   @After
+   public void deleteLockDirs()
+   {
+      for (File lockDir : lockDirs)
+      {
+         TempDirs.delete(lockDir);
+      }
+   }
+
+   //----------------------------------------------------------------------------------||
+   // Tests ---------------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   /**
+    * Tests that two servers never share an offset, and that a server keeps its own
+    */
+   @Test
+   public void testDistinctOffsets() throws Exception
+   {
+      PortAllocator allocator = new PortAllocator(PortAllocator.DEFAULT_MAX_BLOCKS, newLockDir());
+      Server one = newServer("one");
+      Server two = newServer("two");
+
+      int first = allocator.reserve(one);
+      int second = allocator.reserve(two);
+
+      TestCase.assertTrue(first > 0);
+      TestCase.assertTrue(first != second);
+      TestCase.assertEquals(first, allocator.reserve(one));
+      TestCase.assertEquals(one.getRmiPort().intValue() + first, one.getAssignedRmiPort());
+
+      allocator.release(one);
+      TestCase.assertEquals(0, one.getPortOffset());
+      TestCase.assertNull(allocator.getHolder(first));
+   }
+
+   /**
+    * Tests that an offset whose ports are in use is skipped
+    */
+   @Test
+   public void testSkipsBusyPorts() throws Exception
+   {
+      PortAllocator allocator = new PortAllocator(PortAllocator.DEFAULT_MAX_BLOCKS, newLockDir());
+      Server server = newServer("busy");
+
+      ServerSocket socket = new ServerSocket();
+      try
+      {
+         socket.bind(new InetSocketAddress(InetAddress.getByName("localhost"), server.getRmiPort().intValue()
+               + PortAllocator.BLOCK_SIZE));
+         TestCase.assertTrue(allocator.reserve(server) > PortAllocator.BLOCK_SIZE);
+      }
+      finally
+      {
+         socket.close();
+      }
+   }
+
+   /**
+    * Tests that allocators sharing a lock directory, as those of parallel
+    * builds on one host do, never hand out the same offset, and that the
+    * offsets run out at the configured number of binding sets
+    */
+   @Test
+   public void testSharedLockDir() throws Exception
+   {
+      File lockDir = newLockDir();
+      PortAllocator first = new PortAllocator(2, lockDir);
+      PortAllocator second = new PortAllocator(2, lockDir);
+
+      int one = first.reserve(newServer("one"));
+      int two = second.reserve(newServer("two"));
+      TestCase.assertTrue(one != two);
+
+      try
+      {
+         second.reserve(newServer("three"));
+         TestCase.fail("Reserved more offsets than binding sets");
+      }
+      catch (IOException expected)
+      {
+         // expected
+      }
+
+      Server released = first.getHolder(one);
+      first.release(released);
+      TestCase.assertEquals(one, second.reserve(newServer("four")));
+   }
+
+   /**
+    * Tests that the default allocator refuses a server beyond the stock
+    * binding sets, saying what to do about it
+    */
+   @Test
+   public void testDefaultBlocksRefused() throws Exception
+   {
+      PortAllocator allocator = new PortAllocator(PortAllocator.DEFAULT_MAX_BLOCKS, newLockDir());
+      for (int i = 1; i <= PortAllocator.DEFAULT_MAX_BLOCKS; i++)
+      {
+         TestCase.assertEquals(i * PortAllocator.BLOCK_SIZE, allocator.reserve(newServer("server" + i)));
+      }
+
+      try
+      {
+         allocator.reserve(newServer("extra"));
+         TestCase.fail("Reserved more offsets than stock binding sets");
+      }
+      catch (IOException expected)
+      {
+         String message = expected.getMessage();
+         TestCase.assertTrue(message, message.contains("\"extra\""));
+         TestCase.assertTrue(message, message.contains("ports-01"));
+         TestCase.assertTrue(message, message.contains(ServerManager.SYSTEM_PROPERTY_JBOSSAS_PORT_BLOCKS));
+      }
+   }
+
+   /**
+    * Tests that an offset whose lock could not be taken is not held on to
+    */
+   @Test
+   public void testFailedLockReleasesOffset() throws Exception
+   {
+      File lockDir = new File(newLockDir(), "missing");
+      PortAllocator allocator = new PortAllocator(1, lockDir);
+      Server server = newServer("unlocked");
+
+      try
+      {
+         allocator.reserve(server);
+         TestCase.fail("Locked an offset in a missing directory");
+      }
+      catch (IOException expected)
+      {
+         // expected
+      }
+      TestCase.assertNull(allocator.getHolder(PortAllocator.BLOCK_SIZE));
+
+      TestCase.assertTrue(lockDir.mkdir());
+      TestCase.assertEquals(PortAllocator.BLOCK_SIZE, allocator.reserve(server));
+   }
+
+   //----------------------------------------------------------------------------------||
+   // Internal Helper Methods ---------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   private File newLockDir() throws IOException
+   {
+      File lockDir = TempDirs.create("portallocator");
+      lockDirs.add(lockDir);
+      return lockDir;
+   }
+
+   private static Server newServer(String name)
+   {
+      Server server = new Server();
+      server.setName(name);
+      server.setHasWebServer(false);
+      return server;
+   }
+}
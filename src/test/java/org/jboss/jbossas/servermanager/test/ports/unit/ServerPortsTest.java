@@ -0,0 +1,112 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.jbossas.servermanager.test.ports.unit;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import org.jboss.jbossas.servermanager.Server;
+import org.junit.Test;
+
+/**
+ * ServerPortsTest
+ * 
+ * Checks which ports, besides HTTP and RMI, a server is expected
+ * to bind and so must find free before it starts.
+ *
+ * @version $Revision: $
+ */
+public class ServerPortsTest
+{
+
+   //----------------------------------------------------------------------------------||
+   // Tests ---------------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   /**
+    * Tests the ports of the stock configurations, with and without a web server
+    */
+   @Test
+   public void testStockConfiguration()
+   {
+      Server server = newServer("default");
+      TestCase.assertEquals(Arrays.asList(1098, 3873, 4444, 4445, 4446, 4712, 4713, 4714, 8009, 8083),
+            server.getAssignedOtherPorts());
+
+      server.setHasWebServer(false);
+      TestCase.assertFalse(server.getAssignedOtherPorts().contains(8009));
+      TestCase.assertFalse(server.getAssignedOtherPorts().contains(8083));
+
+      server.setPortOffset(200);
+      TestCase.assertEquals(Integer.valueOf(1298), server.getAssignedOtherPorts().get(0));
+   }
+
+   /**
+    * Tests that other configurations are only checked for the ports they are given
+    */
+   @Test
+   public void testOtherConfiguration()
+   {
+      Server server = newServer("minimal");
+      TestCase.assertEquals(Collections.emptyList(), server.getAssignedOtherPorts());
+
+      server.setOtherPorts("4446, 5445");
+      server.setPortOffset(100);
+      TestCase.assertEquals(Arrays.asList(4546, 5545), server.getAssignedOtherPorts());
+   }
+
+   /**
+    * Tests opting out, and that bad ports are refused
+    */
+   @Test
+   public void testSetOtherPorts()
+   {
+      Server server = newServer("default");
+      server.setOtherPorts("");
+      TestCase.assertEquals(Collections.emptyList(), server.getAssignedOtherPorts());
+
+      try
+      {
+         server.setOtherPorts("4444,http");
+         TestCase.fail("Accepted a port that is not a number");
+      }
+      catch (IllegalArgumentException e)
+      {
+         // expected
+      }
+      TestCase.assertEquals("", server.getOtherPorts());
+   }
+
+   //----------------------------------------------------------------------------------||
+   // Internal Helper Methods ---------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   private static Server newServer(String config)
+   {
+      Server server = new Server();
+      server.setName(config);
+      server.setConfig(config);
+      return server;
+   }
+}
@@ -0,0 +1,161 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.jbossas.servermanager.test.readiness.unit;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.jboss.jbossas.servermanager.CompositeReadinessProbe;
+import org.jboss.jbossas.servermanager.ReadinessProbe;
+import org.jboss.jbossas.servermanager.Server;
+import org.junit.Test;
+
+/**
+ * CompositeReadinessProbeTest
+ * 
+ * Checks how composite probes combine their probes, and that they stop
+ * asking once the answer is known.
+ *
+ * @version $Revision: $
+ */
+public class CompositeReadinessProbeTest
+{
+
+   //----------------------------------------------------------------------------------||
+   // Instance Members ----------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   private final Server server = new Server();
+
+   //----------------------------------------------------------------------------------||
+   // Tests ---------------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   /**
+    * Tests that allOf is ready only when every probe is, and stops at the first that is not
+    */
+   @Test
+   public void testAllOf() throws IOException
+   {
+      Counting ready = new Counting(true);
+      Counting notReady = new Counting(false);
+      Counting after = new Counting(true);
+
+      TestCase.assertTrue(CompositeReadinessProbe.allOf(ready, after).isReady(server));
+      TestCase.assertFalse(CompositeReadinessProbe.allOf(ready, notReady, after).isReady(server));
+      TestCase.assertEquals(2, ready.checks);
+      TestCase.assertEquals(1, notReady.checks);
+      TestCase.assertEquals("Checked past the first probe not ready", 1, after.checks);
+   }
+
+   /**
+    * Tests that anyOf is ready once one probe is, and stops at the first that is
+    */
+   @Test
+   public void testAnyOf() throws IOException
+   {
+      Counting notReady = new Counting(false);
+      Counting ready = new Counting(true);
+      Counting after = new Counting(false);
+
+      TestCase.assertFalse(CompositeReadinessProbe.anyOf(notReady, after).isReady(server));
+      TestCase.assertTrue(CompositeReadinessProbe.anyOf(notReady, ready, after).isReady(server));
+      TestCase.assertEquals(2, notReady.checks);
+      TestCase.assertEquals(1, ready.checks);
+      TestCase.assertEquals("Checked past the first probe ready", 1, after.checks);
+   }
+
+   /**
+    * Tests that composites nest
+    */
+   @Test
+   public void testNested() throws IOException
+   {
+      ReadinessProbe probe = CompositeReadinessProbe.allOf(new Counting(true),
+            CompositeReadinessProbe.anyOf(new Counting(false), new Counting(true)));
+      TestCase.assertTrue(probe.isReady(server));
+   }
+
+   /**
+    * Tests that a probe's failure is passed on
+    */
+   @Test
+   public void testFailure()
+   {
+      final IOException failure = new IOException("refused");
+      try
+      {
+         CompositeReadinessProbe.anyOf(new ReadinessProbe()
+         {
+            public boolean isReady(Server server) throws IOException
+            {
+               throw failure;
+            }
+         }, new Counting(true)).isReady(server);
+         TestCase.fail("Failure not passed on");
+      }
+      catch (IOException e)
+      {
+         TestCase.assertSame(failure, e);
+      }
+   }
+
+   /**
+    * Tests that a composite needs at least one probe
+    */
+   @Test
+   public void testEmpty()
+   {
+      try
+      {
+         CompositeReadinessProbe.allOf();
+         TestCase.fail("Composite of no probes created");
+      }
+      catch (IllegalArgumentException expected)
+      {
+         // expected
+      }
+   }
+
+   //----------------------------------------------------------------------------------||
+   // Internal Helper Methods ---------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   private static class Counting implements ReadinessProbe
+   {
+      private final boolean ready;
+
+      private int checks;
+
+      Counting(boolean ready)
+      {
+         this.ready = ready;
+      }
+
+      public boolean isReady(Server server)
+      {
+         checks++;
+         return ready;
+      }
+   }
+}
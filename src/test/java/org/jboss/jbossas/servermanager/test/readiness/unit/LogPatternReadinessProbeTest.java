@@ -0,0 +1,143 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.jbossas.servermanager.test.readiness.unit;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.jboss.jbossas.servermanager.LogPatternReadinessProbe;
+import org.jboss.jbossas.servermanager.OutputListener;
+import org.jboss.jbossas.servermanager.OutputMultiplexer;
+import org.jboss.jbossas.servermanager.Server;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * LogPatternReadinessProbeTest
+ * 
+ * Checks that the log pattern probe answers from the started line of a
+ * running server, waiting for it no longer than asked.
+ *
+ * @version $Revision: $
+ */
+public class LogPatternReadinessProbeTest
+{
+
+   //----------------------------------------------------------------------------------||
+   // Class Members -------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   private static final String STARTED_PATTERN = "Started in \\d+s";
+
+   //----------------------------------------------------------------------------------||
+   // Instance Members ----------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   private final OutputMultiplexer multiplexer = new OutputMultiplexer(1, Collections.<OutputListener>emptyList());
+
+   private final List<Process> processes = new ArrayList<Process>();
+
+   //----------------------------------------------------------------------------------||
+   // Lifecycle -----------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   @After
+   public void after()
+   {
+      for (Process process : processes)
+      {
+         process.destroyForcibly();
+      }
+   }
+
+   //----------------------------------------------------------------------------------||
+   // Tests ---------------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   /**
+    * Tests that the started line makes a running server ready
+    */
+   @Test
+   public void testStartedLine() throws IOException
+   {
+      Server server = start("echo booting; sleep 1; echo 'JBoss Started in 1s:0ms'; exec sleep 30");
+      TestCase.assertTrue(new LogPatternReadinessProbe(10000).isReady(server));
+      TestCase.assertTrue("Not ready on a later check", new LogPatternReadinessProbe().isReady(server));
+   }
+
+   /**
+    * Tests that the probe waits for the line no longer than its timeout
+    */
+   @Test
+   public void testTimeout() throws IOException
+   {
+      Server server = start("echo booting; exec sleep 30");
+      TestCase.assertFalse(new LogPatternReadinessProbe().isReady(server));
+
+      long begin = System.nanoTime();
+      TestCase.assertFalse(new LogPatternReadinessProbe(300).isReady(server));
+      long waited = System.nanoTime() - begin;
+      TestCase.assertTrue("Waited " + waited + " ns", waited >= TimeUnit.MILLISECONDS.toNanos(300)
+            && waited < TimeUnit.SECONDS.toNanos(5));
+   }
+
+   /**
+    * Tests that a server which is not running is never ready, and is not waited for
+    */
+   @Test
+   public void testNotRunning() throws IOException
+   {
+      Server server = new Server();
+      server.setName("idle");
+      server.setStartedPattern(STARTED_PATTERN);
+
+      long begin = System.nanoTime();
+      TestCase.assertFalse(new LogPatternReadinessProbe(10000).isReady(server));
+      TestCase.assertTrue("Waited for a server not running", System.nanoTime() - begin < TimeUnit.SECONDS.toNanos(5));
+   }
+
+   //----------------------------------------------------------------------------------||
+   // Internal Helper Methods ---------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   /**
+    * A server whose process runs the script, its output read as a started server's is.
+    */
+   private Server start(String script) throws IOException
+   {
+      Server server = new Server();
+      server.setName("probed");
+      server.setStartedPattern(STARTED_PATTERN);
+      Process process = new ProcessBuilder("sh", "-c", script).start();
+      processes.add(process);
+      server.setProcess(process);
+      multiplexer.attach(server, process, new PrintWriter(new StringWriter()), new PrintWriter(new StringWriter()));
+      return server;
+   }
+}
@@ -0,0 +1,301 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.jbossas.servermanager.test.readiness.unit;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.jboss.jbossas.servermanager.HttpReadinessProbe;
+import org.jboss.jbossas.servermanager.ReadinessService;
+import org.jboss.jbossas.servermanager.Server;
+import org.jboss.jbossas.servermanager.TcpReadinessProbe;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * ReadinessServiceTest
+ * 
+ * Checks the selector driven HTTP and TCP probing against a local
+ * socket playing the server.
+ *
+ * @version $Revision: $
+ */
+public class ReadinessServiceTest
+{
+
+   //----------------------------------------------------------------------------------||
+   // Class Members -------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   /** the longest a probe should take to notice a ready server (in s) **/
+   private static final long WAIT = 5;
+
+   //----------------------------------------------------------------------------------||
+   // Instance Members ----------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   private final ReadinessService service = new ReadinessService();
+
+   private FakeHttpServer http;
+
+   //----------------------------------------------------------------------------------||
+   // Lifecycle -----------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   @After
+   public void after() throws IOException
+   {
+      if (http != null)
+      {
+         http.close();
+      }
+   }
+
+   //----------------------------------------------------------------------------------||
+   // Tests ---------------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   /**
+    * Tests that a 2xx answer makes the server ready
+    */
+   @Test
+   public void testOk() throws Exception
+   {
+      http = new FakeHttpServer(new ServerSocket(0, 50, InetAddress.getLoopbackAddress()), "HTTP/1.1 200 OK", 0);
+      service.watch(newServer(http.port())).get(WAIT, TimeUnit.SECONDS);
+   }
+
+   /**
+    * Tests that a 3xx answer makes the server ready
+    */
+   @Test
+   public void testRedirect() throws Exception
+   {
+      http = new FakeHttpServer(new ServerSocket(0, 50, InetAddress.getLoopbackAddress()), "HTTP/1.1 302 Found", 0);
+      service.watch(newServer(http.port())).get(WAIT, TimeUnit.SECONDS);
+   }
+
+   /**
+    * Tests that a 5xx answer does not make the server ready, but is retried
+    */
+   @Test
+   public void testServerError() throws Exception
+   {
+      http = new FakeHttpServer(new ServerSocket(0, 50, InetAddress.getLoopbackAddress()),
+            "HTTP/1.1 503 Service Unavailable", 0);
+      CompletableFuture<Void> ready = service.watch(newServer(http.port()));
+      assertNotReady(ready, 1000);
+      TestCase.assertTrue("Not retried: " + http.accepted.get() + " attempts", http.accepted.get() > 1);
+      ready.cancel(false);
+   }
+
+   /**
+    * Tests that a refused connection is retried until the server listens
+    */
+   @Test
+   public void testRefusedThenListening() throws Exception
+   {
+      ServerSocket socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+      int port = socket.getLocalPort();
+      socket.close();
+
+      CompletableFuture<Void> ready = service.watch(newServer(port));
+      assertNotReady(ready, 500);
+
+      socket = new ServerSocket();
+      socket.setReuseAddress(true);
+      socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+      http = new FakeHttpServer(socket, "HTTP/1.0 200 OK", 0);
+      ready.get(WAIT, TimeUnit.SECONDS);
+   }
+
+   /**
+    * Tests that an answer slower than the read timeout is given up on and retried
+    */
+   @Test
+   public void testSlowResponse() throws Exception
+   {
+      // the first connection answers long after the 200 ms read timeout, later ones at once
+      http = new FakeHttpServer(new ServerSocket(0, 50, InetAddress.getLoopbackAddress()), "HTTP/1.1 200 OK", 3000);
+      long begin = System.nanoTime();
+      service.watch(newServer(http.port())).get(WAIT, TimeUnit.SECONDS);
+      TestCase.assertTrue("Waited for the slow answer", System.nanoTime() - begin < TimeUnit.MILLISECONDS.toNanos(2500));
+      TestCase.assertTrue("Not retried", http.accepted.get() > 1);
+   }
+
+   /**
+    * Tests a plain TCP probe
+    */
+   @Test
+   public void testTcp() throws Exception
+   {
+      http = new FakeHttpServer(new ServerSocket(0, 50, InetAddress.getLoopbackAddress()), null, 0);
+      Server server = newServer(http.port());
+      server.setReadinessProbe(new TcpReadinessProbe(Integer.valueOf(http.port()), 200));
+      service.watch(server).get(WAIT, TimeUnit.SECONDS);
+   }
+
+   /**
+    * Tests that cancelling the future stops the probing
+    */
+   @Test
+   public void testCancel() throws Exception
+   {
+      http = new FakeHttpServer(new ServerSocket(0, 50, InetAddress.getLoopbackAddress()),
+            "HTTP/1.1 503 Service Unavailable", 0);
+      CompletableFuture<Void> ready = service.watch(newServer(http.port()));
+      assertNotReady(ready, 500);
+      ready.cancel(false);
+
+      // the selector sees the cancellation within its longest select
+      Thread.sleep(1000);
+      int attempts = http.accepted.get();
+      Thread.sleep(1500);
+      TestCase.assertEquals("Probed after cancel", attempts, http.accepted.get());
+   }
+
+   //----------------------------------------------------------------------------------||
+   // Internal Helper Methods ---------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   private static Server newServer(int port)
+   {
+      Server server = new Server();
+      server.setName("probed");
+      server.setHost("127.0.0.1");
+      server.setHttpPort(Integer.valueOf(port));
+      server.setReadinessProbe(new HttpReadinessProbe(200, 200));
+      return server;
+   }
+
+   private static void assertNotReady(CompletableFuture<Void> ready, long millis) throws Exception
+   {
+      try
+      {
+         ready.get(millis, TimeUnit.MILLISECONDS);
+         TestCase.fail("Server found ready");
+      }
+      catch (TimeoutException e)
+      {
+         // expected
+      }
+   }
+
+   /**
+    * Answers every connection with a status line, the first one after a delay.
+    */
+   private static class FakeHttpServer implements Runnable
+   {
+      private final ServerSocket socket;
+
+      private final String status;
+
+      private final long firstDelay;
+
+      private final AtomicInteger accepted = new AtomicInteger();
+
+      FakeHttpServer(ServerSocket socket, String status, long firstDelay)
+      {
+         this.socket = socket;
+         this.status = status;
+         this.firstDelay = firstDelay;
+         Thread thread = new Thread(this, "FakeHttpServer");
+         thread.setDaemon(true);
+         thread.start();
+      }
+
+      int port()
+      {
+         return socket.getLocalPort();
+      }
+
+      public void run()
+      {
+         while (!socket.isClosed())
+         {
+            try
+            {
+               final Socket connection = socket.accept();
+               final long delay = accepted.getAndIncrement() == 0 ? firstDelay : 0;
+               Thread answer = new Thread()
+               {
+                  public void run()
+                  {
+                     answer(connection, delay);
+                  }
+               };
+               answer.setDaemon(true);
+               answer.start();
+            }
+            catch (IOException e)
+            {
+               // closed
+            }
+         }
+      }
+
+      private void answer(Socket connection, long delay)
+      {
+         try
+         {
+            if (status != null)
+            {
+               Thread.sleep(delay);
+               OutputStream out = connection.getOutputStream();
+               out.write((status + "\r\nContent-Length: 0\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+               out.flush();
+            }
+         }
+         catch (Exception e)
+         {
+            // the prober gave up
+         }
+         finally
+         {
+            try
+            {
+               connection.close();
+            }
+            catch (IOException e)
+            {
+               // ignore
+            }
+         }
+      }
+
+      void close() throws IOException
+      {
+         socket.close();
+      }
+   }
+}
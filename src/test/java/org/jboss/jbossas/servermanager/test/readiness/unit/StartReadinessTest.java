@@ -0,0 +1,219 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.jbossas.servermanager.test.readiness.unit;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.jboss.jbossas.servermanager.CompositeReadinessProbe;
+import org.jboss.jbossas.servermanager.LogPatternReadinessProbe;
+import org.jboss.jbossas.servermanager.ReadinessProbe;
+import org.jboss.jbossas.servermanager.Server;
+import org.jboss.jbossas.servermanager.ServerController;
+import org.jboss.jbossas.servermanager.ServerManager;
+import org.jboss.jbossas.servermanager.ServerShutdownException;
+import org.jboss.jbossas.servermanager.ServerStartupException;
+import org.jboss.jbossas.servermanager.test.common.FakeJBossHome;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * StartReadinessTest
+ * 
+ * Checks which readiness ends the wait for a start: the started line
+ * only when that is all the readiness asks for, the configured probe
+ * otherwise.
+ *
+ * @version $Revision: $
+ */
+public class StartReadinessTest
+{
+
+   //----------------------------------------------------------------------------------||
+   // Class Members -------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   private static final String STARTED_LINE = "12:00:00,000 INFO  [ServerImpl] JBoss (Microcontainer) [5.1.0.GA] Started in 1s:0ms";
+
+   /** the start timeout (in seconds) **/
+   private static final int TIMEOUT = 3;
+
+   //----------------------------------------------------------------------------------||
+   // Instance Members ----------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   private FakeJBossHome home;
+
+   private ServerManager manager;
+
+   private Server server;
+
+   //----------------------------------------------------------------------------------||
+   // Lifecycle -----------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   @Before
+   public void before() throws IOException
+   {
+      home = new FakeJBossHome(STARTED_LINE);
+      manager = new ServerManager()
+      {
+         public int getStartupTimeout()
+         {
+            return TIMEOUT;
+         }
+
+         public int getKillGracePeriod()
+         {
+            return 1;
+         }
+      };
+      home.apply(manager);
+      server = new Server();
+      server.setName("fake");
+      server.setHost("127.0.0.1");
+      server.setConfig("default");
+      manager.addServer(server);
+   }
+
+   @After
+   public void after() throws IOException
+   {
+      if (server.isRunning())
+      {
+         try
+         {
+            ServerController.stopServer(server, manager);
+         }
+         catch (ServerShutdownException e)
+         {
+            // there is nothing to shut it down cleanly
+         }
+      }
+      home.delete();
+   }
+
+   //----------------------------------------------------------------------------------||
+   // Tests ---------------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   /**
+    * Tests that the started line ends the wait with the default readiness
+    */
+   @Test
+   public void testStartedLineWithDefaultReadiness() throws IOException
+   {
+      long begin = System.nanoTime();
+      ServerController.startServer(server, manager);
+      TestCase.assertTrue("Server not running", server.isRunning());
+      TestCase.assertTrue("Start waited for the timeout", System.nanoTime() - begin < TIMEOUT * 1000000000L);
+   }
+
+   /**
+    * Tests that a configured probe gates the start although the started line appeared
+    */
+   @Test
+   public void testProbeGatesDespiteStartedLine() throws IOException
+   {
+      NeverReady probe = new NeverReady();
+      server.setReadinessProbe(probe);
+      assertStartTimesOut();
+      TestCase.assertTrue("Probe never checked", probe.checks.get() > 0);
+   }
+
+   /**
+    * Tests that the JMX mode gates the start although the started line appeared
+    */
+   @Test
+   public void testJmxModeGatesDespiteStartedLine() throws IOException
+   {
+      server.setReadiness(Server.READINESS_JMX);
+      assertStartTimesOut();
+   }
+
+   /**
+    * Tests that the started line only counts as part of a composite probe
+    */
+   @Test
+   public void testCompositeWithStartedLine() throws IOException
+   {
+      server.setReadinessProbe(CompositeReadinessProbe.allOf(new LogPatternReadinessProbe(), new NeverReady()));
+      assertStartTimesOut();
+
+      server.setReadinessProbe(CompositeReadinessProbe.anyOf(new LogPatternReadinessProbe(), new NeverReady()));
+      ServerController.startServer(server, manager);
+      TestCase.assertTrue("Server not running", server.isRunning());
+   }
+
+   /**
+    * Tests that a start whose probing cannot even begin tears the process down
+    */
+   @Test
+   public void testProbeFailureAbortsStart() throws IOException
+   {
+      // no socket can be opened to this port
+      server.setHttpPort(Integer.valueOf(70000));
+      server.setReadiness(Server.READINESS_HTTP);
+      try
+      {
+         ServerController.startServer(server, manager);
+         TestCase.fail("Started although the server could not be probed");
+      }
+      catch (IllegalArgumentException e)
+      {
+         // expected
+      }
+      TestCase.assertFalse("Server still running", server.isRunning());
+   }
+
+   //----------------------------------------------------------------------------------||
+   // Internal Helper Methods ---------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   private void assertStartTimesOut() throws IOException
+   {
+      try
+      {
+         ServerController.startServer(server, manager);
+         TestCase.fail("Server started although its probe never passed");
+      }
+      catch (ServerStartupException e)
+      {
+         // expected
+      }
+      TestCase.assertFalse("Server still running", server.isRunning());
+   }
+
+   private static class NeverReady implements ReadinessProbe
+   {
+      private final AtomicInteger checks = new AtomicInteger();
+
+      public boolean isReady(Server server)
+      {
+         checks.incrementAndGet();
+         return false;
+      }
+   }
+}
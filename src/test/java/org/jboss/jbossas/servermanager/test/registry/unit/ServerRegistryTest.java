@@ -0,0 +1,151 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.jbossas.servermanager.test.registry.unit;
+
+import java.util.concurrent.CyclicBarrier;
+
+import junit.framework.TestCase;
+
+import org.jboss.jbossas.servermanager.Server;
+import org.jboss.jbossas.servermanager.ServerManager;
+import org.junit.Test;
+
+/**
+ * ServerRegistryTest
+ * 
+ * Checks lookup and removal of servers by name.
+ *
+ * @version $Revision: $
+ */
+public class ServerRegistryTest
+{
+
+   //----------------------------------------------------------------------------------||
+   // Tests ---------------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   /**
+    * Tests that a server named after it was added (as Ant does) can be found
+    */
+   @Test
+   public void testNamedAfterAdd()
+   {
+      ServerManager manager = new ServerManager();
+      Server server = new Server();
+      manager.addServer(server);
+      server.setName("late");
+
+      TestCase.assertSame(server, manager.getServer("late"));
+      TestCase.assertSame(server, manager.getServer("late"));
+   }
+
+   /**
+    * Tests that a deleted server is no longer managed
+    */
+   @Test
+   public void testDelServer()
+   {
+      ServerManager manager = new ServerManager();
+      Server server = new Server();
+      server.setName("gone");
+      manager.addServer(server);
+      manager.delServer("gone");
+
+      TestCase.assertTrue(manager.getServers().isEmpty());
+      try
+      {
+         manager.getServer("gone");
+         TestCase.fail("Deleted server is still managed");
+      }
+      catch (IllegalArgumentException expected)
+      {
+         // expected
+      }
+   }
+
+   /**
+    * Tests that a lookup racing the deletion of a server not indexed yet
+    * never indexes the deleted server again
+    */
+   @Test
+   public void testLookupRacingDelete() throws Exception
+   {
+      final ServerManager manager = new ServerManager();
+      final CyclicBarrier barrier = new CyclicBarrier(2);
+      for (int i = 0; i < 2000; i++)
+      {
+         Server server = new Server();
+         manager.addServer(server);
+         // named after it was added, so the lookup goes through the list
+         server.setName("raced");
+
+         Thread lookup = new Thread()
+         {
+            public void run()
+            {
+               try
+               {
+                  barrier.await();
+                  manager.getServer("raced");
+               }
+               catch (Exception e)
+               {
+                  // deleted first
+               }
+            }
+         };
+         lookup.start();
+         barrier.await();
+         manager.delServer("raced");
+         lookup.join();
+
+         TestCase.assertTrue(manager.getServers().isEmpty());
+         try
+         {
+            manager.getServer("raced");
+            TestCase.fail("Deleted server indexed again in round " + i);
+         }
+         catch (IllegalArgumentException expected)
+         {
+            // expected
+         }
+      }
+   }
+
+   /**
+    * Tests that the list of servers only changes through the manager
+    */
+   @Test
+   public void testServersReadOnly()
+   {
+      ServerManager manager = new ServerManager();
+      try
+      {
+         manager.getServers().add(new Server());
+         TestCase.fail("Server added behind the manager's back");
+      }
+      catch (UnsupportedOperationException expected)
+      {
+         // expected
+      }
+   }
+}
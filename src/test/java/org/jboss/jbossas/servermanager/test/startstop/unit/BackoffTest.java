@@ -0,0 +1,110 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.jbossas.servermanager.test.startstop.unit;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.jboss.jbossas.servermanager.Backoff;
+import org.junit.Test;
+
+/**
+ * BackoffTest
+ * 
+ * Checks the poll intervals of the startup and shutdown wait loops.
+ *
+ * @version $Revision: $
+ */
+public class BackoffTest
+{
+
+   //----------------------------------------------------------------------------------||
+   // Class Members -------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   /** more time than any test needs **/
+   private static final long PLENTY = TimeUnit.MINUTES.toNanos(10);
+
+   //----------------------------------------------------------------------------------||
+   // Tests ---------------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   /**
+    * Tests that without an expected time the polls start short and grow
+    * by half up to the longest interval
+    */
+   @Test
+   public void testGrowth()
+   {
+      Backoff backoff = new Backoff(0);
+      long expected = Backoff.MIN_DELAY;
+      for (int i = 0; i < 20; i++)
+      {
+         TestCase.assertEquals("Poll " + i, expected, backoff.nextDelay(PLENTY));
+         expected = Math.min(Backoff.MAX_DELAY, expected + expected / 2);
+      }
+      TestCase.assertEquals(Backoff.MAX_DELAY, backoff.nextDelay(PLENTY));
+   }
+
+   /**
+    * Tests that a poll never waits past the deadline
+    */
+   @Test
+   public void testRemaining()
+   {
+      Backoff backoff = new Backoff(0);
+      long remaining = Backoff.MIN_DELAY / 4;
+      TestCase.assertEquals(remaining, backoff.nextDelay(remaining));
+      TestCase.assertEquals(0, backoff.nextDelay(-1));
+   }
+
+   /**
+    * Tests that polling stays relaxed well before the expected time, and
+    * is short again once in the window before it
+    */
+   @Test
+   public void testExpectedTime()
+   {
+      Backoff early = new Backoff(PLENTY);
+      for (int i = 0; i < 5; i++)
+      {
+         TestCase.assertEquals("Poll " + i, Backoff.MAX_DELAY, early.nextDelay(PLENTY));
+      }
+
+      // the window has started by the time of the first poll
+      Backoff late = new Backoff(1);
+      TestCase.assertEquals(Backoff.MIN_DELAY, late.nextDelay(PLENTY));
+   }
+
+   /**
+    * Tests that the elapsed time counts from the creation of the backoff
+    */
+   @Test
+   public void testElapsed() throws InterruptedException
+   {
+      Backoff backoff = new Backoff(0);
+      Thread.sleep(50);
+      long elapsed = backoff.elapsed();
+      TestCase.assertTrue("Elapsed " + elapsed, elapsed >= TimeUnit.MILLISECONDS.toNanos(50) && elapsed < PLENTY);
+   }
+}
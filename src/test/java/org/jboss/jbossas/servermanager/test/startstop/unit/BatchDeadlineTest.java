@@ -0,0 +1,139 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.jbossas.servermanager.test.startstop.unit;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.jboss.jbossas.servermanager.ReadinessProbe;
+import org.jboss.jbossas.servermanager.Server;
+import org.jboss.jbossas.servermanager.ServerManager;
+import org.jboss.jbossas.servermanager.ServerOutcome;
+import org.jboss.jbossas.servermanager.test.common.FakeJBossHome;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * BatchDeadlineTest
+ * 
+ * Checks that a batch start shares one deadline among all its servers,
+ * queued ones included, and tears down what it gave up on before it
+ * reports.  Runs against stand-in servers, no AS is needed.
+ *
+ * @version $Revision: $
+ */
+public class BatchDeadlineTest
+{
+
+   //----------------------------------------------------------------------------------||
+   // Class Members -------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   /** the startup timeout (in seconds) **/
+   private static final int TIMEOUT = 3;
+
+   private static final List<String> NAMES = Arrays.asList("one", "two", "three");
+
+   //----------------------------------------------------------------------------------||
+   // Instance Members ----------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   private FakeJBossHome home;
+
+   private ServerManager manager;
+
+   //----------------------------------------------------------------------------------||
+   // Lifecycle -----------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   @Before
+   public void before() throws IOException
+   {
+      home = new FakeJBossHome("booting");
+      manager = new ServerManager()
+      {
+         public int getStartupTimeout()
+         {
+            return TIMEOUT;
+         }
+
+         public int getKillGracePeriod()
+         {
+            return 1;
+         }
+      };
+      home.apply(manager);
+      for (String name : NAMES)
+      {
+         Server server = new Server();
+         server.setName(name);
+         server.setConfig("default");
+         server.setHost("127.0.0.1");
+         server.setOtherPorts("");
+         server.setReadinessProbe(new ReadinessProbe()
+         {
+            public boolean isReady(Server server)
+            {
+               return false;
+            }
+         });
+         manager.addServer(server);
+      }
+   }
+
+   @After
+   public void after()
+   {
+      home.delete();
+   }
+
+   //----------------------------------------------------------------------------------||
+   // Tests ---------------------------------------------------------------------------||
+   //----------------------------------------------------------------------------------||
+
+   /**
+    * Tests that servers booting one at a time share a single startup timeout
+    */
+   @Test
+   public void testSharedDeadline()
+   {
+      long begin = System.nanoTime();
+      Map<String, ServerOutcome> outcomes = manager.startAll(NAMES, 1);
+      long elapsed = System.nanoTime() - begin;
+
+      TestCase.assertTrue("Batch took " + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms",
+            elapsed < TimeUnit.SECONDS.toNanos(2 * TIMEOUT));
+      for (String name : NAMES)
+      {
+         ServerOutcome outcome = outcomes.get(name);
+         TestCase.assertFalse(name + " started", outcome.isSuccessful());
+         TestCase.assertFalse(name + " still running after the batch", manager.getServer(name).isRunning());
+      }
+      TestCase.assertTrue("Queued server not timed out", outcomes.get("three").isTimedOut());
+   }
+}